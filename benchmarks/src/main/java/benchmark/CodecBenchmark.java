@@ -0,0 +1,57 @@
+package benchmark;
+
+import common.Request;
+import common.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and printing of the requests and responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private final String putInput = "method: PUT, key: Walter, value: C";
+    private final String getInput = "method: GET, key: Walter";
+    private final String responseInput = "code: 200, operation: SUCCEED, value: C";
+    private final Request request = new Request(Request.Method.PUT, "Walter", "C");
+    private final Response response = new Response("200", Response.Status.SUCCEED, "C");
+
+    @Benchmark
+    public Request createPutRequest() {
+        return Request.createRequest(putInput);
+    }
+
+    @Benchmark
+    public Request createGetRequest() {
+        return Request.createRequest(getInput);
+    }
+
+    @Benchmark
+    public Response createResponse() {
+        return Response.createResponse(responseInput);
+    }
+
+    @Benchmark
+    public String requestToString() {
+        return request.toString();
+    }
+
+    @Benchmark
+    public String responseToString() {
+        return response.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package benchmark;
+
+import common.Request;
+import common.Response;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import server.Server;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Full Paxos rounds on a cluster of replicas running in the current JVM.
+ * The registries hand out the server objects themselves, so the replicas call each other without sockets.
+ * The random acceptor failures are off unless -p acceptorFailureNum=10 turns them on, and the succeeded
+ * and failed operations are reported apart, so a failed round doesn't count as throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsensusBenchmark {
+    private static final int KEY_COUNT = 1024;
+
+    @Param({"3", "5"})
+    private int replicas;
+
+    // 1 of this many proposals fails on the acceptors, 0 never.
+    @Param({"0"})
+    private long acceptorFailureNum;
+
+    private LocalCluster cluster;
+    private Server server;
+    private Request[] putRequests;
+
+    /**
+     * The operations of a thread which succeeded and failed.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Outcomes {
+        public long succeeded;
+        public long failed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            succeeded = 0;
+            failed = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        LocalCluster.quietLogging();
+        // Read by the servers when they are created.
+        System.setProperty("paxos.acceptorFailureNum", Long.toString(acceptorFailureNum));
+        cluster = new LocalCluster(replicas);
+        server = cluster.getServer(0);
+        putRequests = new Request[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            putRequests[i] = new Request(Request.Method.PUT, "key" + i, "value" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.shutdown();
+    }
+
+    private Request nextRequest() {
+        return putRequests[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+    }
+
+    @Benchmark
+    public void invokeProposer(Outcomes outcomes, Blackhole blackhole) {
+        try {
+            blackhole.consume(server.invokeProposer(nextRequest()));
+            outcomes.succeeded++;
+        } catch (RemoteException | TimeoutException e) {
+            outcomes.failed++;
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void put(Outcomes outcomes, Blackhole blackhole) {
+        try {
+            // A new request each time, since the server marks a forwarded request.
+            Request request = nextRequest();
+            Response response = server.put(new Request(request.getMethod(), request.getKey(), request.getValue()));
+            if (response.getStatus() == Response.Status.SUCCEED) {
+                outcomes.succeeded++;
+            } else {
+                outcomes.failed++;
+            }
+            blackhole.consume(response);
+        } catch (RemoteException e) {
+            outcomes.failed++;
+            blackhole.consume(e);
+        }
+    }
+}
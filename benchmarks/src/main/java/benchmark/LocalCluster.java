@@ -0,0 +1,95 @@
+package benchmark;
+
+import server.Server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cluster of servers running in the current JVM.
+ * Every server has its own registry, and the servers are registered with each other
+ * the same way Server.main does after the discovery.
+ */
+public class LocalCluster {
+    // Keep a reference, otherwise the level is lost when the logger is collected.
+    private static final Logger storeLogger = Logger.getLogger(common.Logger.class.getName());
+
+    private final List<Registry> registries;
+    private final List<Server> servers;
+
+    /**
+     * Start the cluster.
+     *
+     * @param size
+     * @throws IOException
+     */
+    public LocalCluster(int size) throws IOException {
+        this.registries = new ArrayList<>();
+        this.servers = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int port = freePort();
+            Registry registry = LocateRegistry.createRegistry(port);
+            Server server = new Server(Server.createServerID(port), registry, port);
+            registry.rebind("Server", server);
+            registries.add(registry);
+            servers.add(server);
+        }
+        for (Server server : servers) {
+            for (Server other : servers) {
+                if (server != other) {
+                    server.registerNewServer(other.getServerID(), other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only log the warnings of the store, so the console doesn't dominate the measurements.
+     */
+    public static void quietLogging() {
+        storeLogger.setLevel(Level.WARNING);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    public Server getServer(int index) {
+        return servers.get(index);
+    }
+
+    public int size() {
+        return servers.size();
+    }
+
+    /**
+     * Stop every server and registry of the cluster.
+     */
+    public void shutdown() {
+        for (Server server : servers) {
+            unexport(server);
+        }
+        for (Registry registry : registries) {
+            unexport(registry);
+        }
+    }
+
+    private static void unexport(java.rmi.Remote object) {
+        try {
+            UnicastRemoteObject.unexportObject(object, true);
+        } catch (NoSuchObjectException e) {
+            // Already stopped.
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package benchmark;
+
+import common.Request;
+import common.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Server;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access to the key-value store of a server, on the map itself and through Server.get.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+    @Param({"1000", "100000"})
+    private int keyCount;
+
+    private LocalCluster cluster;
+    private Server server;
+    private ConcurrentHashMap<String, String> keyValueStore;
+    private String[] keys;
+    private Request[] getRequests;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        LocalCluster.quietLogging();
+        cluster = new LocalCluster(1);
+        server = cluster.getServer(0);
+        keyValueStore = server.getStorage();
+        keys = new String[keyCount];
+        getRequests = new Request[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+            keyValueStore.put(keys[i], "value" + i);
+            getRequests[i] = new Request(Request.Method.GET, keys[i], null);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.shutdown();
+    }
+
+    private int nextIndex() {
+        return ThreadLocalRandom.current().nextInt(keyCount);
+    }
+
+    @Benchmark
+    public String mapGet() {
+        return keyValueStore.get(keys[nextIndex()]);
+    }
+
+    @Benchmark
+    public String mapPut() {
+        int index = nextIndex();
+        return keyValueStore.put(keys[index], keys[index]);
+    }
+
+    @Benchmark
+    public Response serverGet() throws RemoteException {
+        return server.get(getRequests[nextIndex()]);
+    }
+}
@@ -0,0 +1,118 @@
+package client;
+
+import common.Logger;
+import common.Response;
+import common.Segment;
+import common.ServerInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.Naming;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+/**
+ * Bulk import of a sorted file of pairs of key and value.
+ * The segment is built on the client, streamed to the server in chunks, and committed
+ * as one Paxos value instead of a round for each key. The other servers fetch it from the server.
+ *
+ * Usage: <Host Name> <Port Number> <Sorted File>, with one "key<TAB>value" pair per line.
+ */
+public class BulkImporter {
+    public final static common.Logger logger = new Logger();
+
+    private final String host;
+    private final int port;
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     * @param port
+     */
+    public BulkImporter(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            logger.log(Level.SEVERE, "Using: <Host Name> <Port Number> <Sorted File>");
+            System.exit(1);
+        }
+
+        try {
+            Response response = new BulkImporter(args[0], Integer.parseInt(args[1])).run(Paths.get(args[2]));
+            System.out.println(response);
+            if (response.getStatus() != Response.Status.SUCCEED) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Bulk import error: {}", e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build the segment, send it and import it.
+     *
+     * @param input
+     * @return
+     * @throws Exception
+     */
+    public Response run(Path input) throws Exception {
+        ServerInterface server = (ServerInterface) Naming.lookup("rmi://" + host + ":" + port + "/Server");
+        Path directory = Files.createTempDirectory("kvstore-import");
+        try {
+            long startTime = System.nanoTime();
+            String segmentID = Segment.build(input, directory);
+            Path segment = directory.resolve(segmentID + Segment.EXTENSION);
+            long size = Files.size(segment);
+            logger.log(Level.INFO, "Built the segment {} in {} ms.", segmentID, (System.nanoTime() - startTime) / 1000000);
+
+            upload(server, segmentID, segment);
+            Response response = server.bulkImport(segmentID);
+            double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.println(String.format("[IMPORT] segment: %s, size: %d bytes, runtime: %.1f s, throughput: %.1f MB/s",
+                    segmentID, size, elapsedSeconds, size / elapsedSeconds / (1 << 20)));
+            return response;
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Stream the segment to the server in chunks.
+     *
+     * @param server
+     * @param segmentID
+     * @param segment
+     * @throws IOException
+     */
+    private static void upload(ServerInterface server, String segmentID, Path segment) throws IOException {
+        byte[] buffer = new byte[Segment.CHUNK_SIZE];
+        long offset = 0l;
+        try (InputStream input = Files.newInputStream(segment)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                server.writeSegmentChunk(segmentID, offset, read == buffer.length ? buffer : Arrays.copyOf(buffer, read));
+                offset += read;
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            logger.log(Level.INFO, "Could not delete the temporary directory: {}", directory);
+        }
+    }
+}
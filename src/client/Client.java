@@ -3,31 +3,48 @@ package client;
 import common.Logger;
 import common.Request;
 import common.Response;
-import common.ServerInterface;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.rmi.Naming;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 public class Client {
     public final static common.Logger logger = new Logger();
     private final List<Request> requests;
+    // The session token of the last write or read of the client for each key.
+    private final Map<String, Long> sessionTokens;
 
     /**
      * Constructor.
      */
     public Client() {
         this.requests = new ArrayList<>();
+        this.sessionTokens = new HashMap<>();
         this.prePopulate();
     }
 
     public static void main(String[] args) {
+        // Load-generator mode: <Host Name> <Port Number> load [option=value]...
+        if (args.length >= 3 && args[2].equals("load")) {
+            String[] loadArgs = new String[args.length - 1];
+            loadArgs[0] = args[0];
+            loadArgs[1] = args[1];
+            System.arraycopy(args, 3, loadArgs, 2, args.length - 3);
+            LoadGenerator.main(loadArgs);
+            return;
+        }
+        // Bulk-import mode: <Host Name> <Port Number> import <Sorted File>
+        if (args.length == 4 && args[2].equals("import")) {
+            BulkImporter.main(new String[]{args[0], args[1], args[3]});
+            return;
+        }
         if (args.length != 2) {
-            logger.log(Level.SEVERE, "Using: <Host Name> <Port Number>");
+            logger.log(Level.SEVERE, "Using: <Host Name> <Port Number> [load [option=value]... | import <Sorted File>]");
             System.exit(1);
         }
 
@@ -37,13 +54,14 @@ public class Client {
             String host = args[0];
             int serverPort = Integer.parseInt(args[1]);
             try {
-                ServerInterface server = (ServerInterface) Naming.lookup("rmi://host.docker.internal:" + serverPort + "/Server");
-                // ServerInterface server = (ServerInterface) Naming.lookup("rmi://localhost:" + serverPort + "/Server");
+                // Every request goes to the leader of the group of its key.
+                ClusterConnection connection = new ClusterConnection("host.docker.internal", serverPort);
+                // ClusterConnection connection = new ClusterConnection("localhost", serverPort);
                 logger.log(Level.INFO, "Connecting to the server at Port: " + serverPort);
 
                 // Prepopulate the data.
                 for (Request request : client.getRequests()) {
-                    Response response = server.put(request);
+                    Response response = connection.send(request);
                     logger.log(Level.INFO, "The pre-populate result given: " + response);
                 }
 
@@ -60,14 +78,19 @@ public class Client {
 
                     try {
                         Request currRequest = Request.createRequest(requestInput);
+                        String key = currRequest.getKey();
                         if (currRequest.getMethod() == Request.Method.PUT) {
-                            Response response = server.put(currRequest);
+                            Response response = connection.send(currRequest);
+                            client.updateSessionToken(key, response);
                             logger.log(Level.INFO, "Response: " + response);
                         } else if (currRequest.getMethod() == Request.Method.GET) {
-                            Response response = server.get(currRequest);
+                            currRequest.setSessionToken(client.getSessionToken(key));
+                            Response response = connection.send(currRequest);
+                            client.updateSessionToken(key, response);
                             logger.log(Level.INFO, "Response: " + response);
                         } else if (currRequest.getMethod() == Request.Method.DELETE) {
-                            Response response = server.delete(currRequest);
+                            Response response = connection.send(currRequest);
+                            client.updateSessionToken(key, response);
                             logger.log(Level.INFO, "Response: " + response);
                         } else {
                             logger.log(Level.SEVERE, "Please enter a valid request.");
@@ -98,6 +121,28 @@ public class Client {
         return requests;
     }
 
+    /**
+     * Get the session token of the key, 0 if the client hasn't written or read it.
+     *
+     * @param key
+     * @return
+     */
+    public long getSessionToken(String key) {
+        return sessionTokens.getOrDefault(key, 0l);
+    }
+
+    /**
+     * Keep the latest session token of the key after a write or a read.
+     *
+     * @param key
+     * @param response
+     */
+    public void updateSessionToken(String key, Response response) {
+        if (response.getStatus() == Response.Status.SUCCEED) {
+            sessionTokens.merge(key, response.getSessionToken(), Math::max);
+        }
+    }
+
     /**
      * Pre-populate 5 pairs of key-value store.
      */
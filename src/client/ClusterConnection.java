@@ -0,0 +1,135 @@
+package client;
+
+import common.Logger;
+import common.Request;
+import common.Response;
+import common.ServerInterface;
+import common.ShardRouter;
+
+import java.net.MalformedURLException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Connection of a client to the cluster through one server.
+ * Every request is sent straight to the leader of the group of its key, so it doesn't pay the forwarding hop.
+ * The leaders are looked up in the registry of the connected server, where every server is bound by its ID.
+ * If the leader can't be reached, the request goes to the connected server, which forwards or proposes it.
+ * A connection is used by one session at a time.
+ */
+public class ClusterConnection {
+    public final static common.Logger logger = new Logger();
+
+    private final String registryURL;
+    private final ServerInterface server;
+    private final String serverID;
+    // Sent with every request, so the servers share their write queues fairly between the clients.
+    private final String clientID;
+    private ShardRouter router;
+    // The stubs of the leaders looked up so far, by server ID.
+    private final Map<String, ServerInterface> leaders;
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     * @param port
+     * @throws NotBoundException
+     * @throws MalformedURLException
+     * @throws RemoteException
+     */
+    public ClusterConnection(String host, int port) throws NotBoundException, MalformedURLException, RemoteException {
+        this.registryURL = "rmi://" + host + ":" + port + "/";
+        this.server = (ServerInterface) Naming.lookup(registryURL + "Server");
+        this.serverID = server.getServerID();
+        this.router = server.getRouter();
+        this.leaders = new HashMap<>();
+        this.clientID = UUID.randomUUID().toString();
+    }
+
+    /**
+     * Getter of the connected server.
+     *
+     * @return
+     */
+    public ServerInterface getServer() {
+        return server;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return
+     */
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Send the request to the leader of the group of its key.
+     *
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    public Response send(Request request) throws RemoteException {
+        request.setClientID(clientID);
+        ServerInterface leader = leaderFor(request.getKey());
+        if (leader != server) {
+            try {
+                return call(leader, request);
+            } catch (ConnectException | ConnectIOException | NoSuchObjectException e) {
+                // The request never reached the leader, so it's safe to send it to the connected server.
+                logger.log(Level.INFO, "Could not reach the leader, sending the request to the connected server: {}", e);
+                leaders.clear();
+                router = server.getRouter();
+            }
+        }
+        return call(server, request);
+    }
+
+    /**
+     * Get the stub of the leader of the group of the key, or the connected server if it can't be looked up.
+     *
+     * @param key
+     * @return
+     */
+    private ServerInterface leaderFor(String key) {
+        String leaderID = router.leaderForKey(key);
+        if (leaderID == null || leaderID.equals(serverID)) {
+            return server;
+        }
+        ServerInterface leader = leaders.get(leaderID);
+        if (leader == null) {
+            try {
+                leader = (ServerInterface) Naming.lookup(registryURL + leaderID);
+            } catch (NotBoundException | MalformedURLException | RemoteException e) {
+                logger.log(Level.INFO, "Could not look up the leader: {}", leaderID);
+                return server;
+            }
+            leaders.put(leaderID, leader);
+        }
+        return leader;
+    }
+
+    private static Response call(ServerInterface target, Request request) throws RemoteException {
+        switch (request.getMethod()) {
+            case GET:
+                return target.get(request);
+            case PUT:
+                return target.put(request);
+            case DELETE:
+                return target.delete(request);
+            default:
+                throw new IllegalArgumentException("The request can't be sent by a client: " + request.getMethod());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package client;
+
+import common.LatencyHistogram;
+import common.Logger;
+import common.Request;
+import common.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Load generator running YCSB-style workloads against a server.
+ * Many sessions send GET and PUT requests on records picked from a Zipfian or uniform distribution.
+ * In the closed loop, each session sends its next request once the previous one returns.
+ * In the open loop, the requests are sent at a fixed rate and the latency is measured from the time
+ * the request should have been sent, so a slow server can't hide its latency (coordinated omission).
+ *
+ * Usage: <Host Name> <Port Number> [records=1000] [duration=30] [readProportion=0.95]
+ *        [distribution=zipfian|uniform] [valueSize=100] [sessions=16] [mode=closed|open] [rate=1000] [load=true]
+ */
+public class LoadGenerator {
+    public final static common.Logger logger = new Logger();
+    private static final String VALUE_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final String host;
+    private final int port;
+    private final int records;
+    private final long durationSeconds;
+    private final double readProportion;
+    private final boolean zipfian;
+    private final int valueSize;
+    private final int sessions;
+    private final boolean openLoop;
+    private final double rate;
+    private final boolean load;
+    private final ZipfianGenerator zipfianGenerator;
+
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram updateLatency;
+    private final AtomicLong readErrors;
+    private final AtomicLong updateErrors;
+
+    /**
+     * Constructor.
+     *
+     * @param host
+     * @param port
+     * @param options
+     */
+    public LoadGenerator(String host, int port, Map<String, String> options) {
+        this.host = host;
+        this.port = port;
+        this.records = Integer.parseInt(options.getOrDefault("records", "1000"));
+        this.durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        this.readProportion = Double.parseDouble(options.getOrDefault("readProportion", "0.95"));
+        this.zipfian = options.getOrDefault("distribution", "zipfian").equals("zipfian");
+        this.valueSize = Integer.parseInt(options.getOrDefault("valueSize", "100"));
+        this.sessions = Integer.parseInt(options.getOrDefault("sessions", "16"));
+        this.openLoop = options.getOrDefault("mode", "closed").equals("open");
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        this.load = Boolean.parseBoolean(options.getOrDefault("load", "true"));
+        if (records <= 0 || sessions <= 0 || rate <= 0) {
+            throw new IllegalArgumentException("The records, sessions and rate should be positive.");
+        }
+        this.zipfianGenerator = zipfian ? new ZipfianGenerator(records) : null;
+        this.readLatency = new LatencyHistogram();
+        this.updateLatency = new LatencyHistogram();
+        this.readErrors = new AtomicLong();
+        this.updateErrors = new AtomicLong();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            logger.log(Level.SEVERE, "Using: <Host Name> <Port Number> [option=value]...");
+            System.exit(1);
+        }
+
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            String[] pair = args[i].split("=");
+            if (pair.length != 2) {
+                logger.log(Level.SEVERE, "The option should be in a format of option=value: " + args[i]);
+                System.exit(1);
+            }
+            options.put(pair[0].trim(), pair[1].trim());
+        }
+
+        try {
+            new LoadGenerator(args[0], Integer.parseInt(args[1]), options).run();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Load generator error: " + e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Load the records, then run the workload and report the results.
+     *
+     * @throws Exception
+     */
+    public void run() throws Exception {
+        if (load) {
+            loadRecords();
+        }
+
+        logger.log(Level.INFO, "Running the workload with " + sessions + " sessions for " + durationSeconds + " seconds.");
+        ExecutorService executor = Executors.newFixedThreadPool(sessions);
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (int i = 0; i < sessions; i++) {
+            final long seed = i;
+            executor.execute(() -> runSession(seed, startTime, endTime));
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationSeconds + 60, TimeUnit.SECONDS);
+        report(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Connect a session, which sends each request to the leader of its key.
+     *
+     * @return
+     * @throws Exception
+     */
+    private ClusterConnection connect() throws Exception {
+        return new ClusterConnection(host, port);
+    }
+
+    /**
+     * Insert every record once, the sessions share the records.
+     *
+     * @throws Exception
+     */
+    private void loadRecords() throws Exception {
+        logger.log(Level.INFO, "Loading " + records + " records.");
+        ExecutorService executor = Executors.newFixedThreadPool(sessions);
+        AtomicLong loadErrors = new AtomicLong();
+        for (int i = 0; i < sessions; i++) {
+            final int session = i;
+            executor.execute(() -> {
+                Random random = new Random(session);
+                ClusterConnection connection;
+                try {
+                    connection = connect();
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Remote connection failed: " + e);
+                    return;
+                }
+                for (int item = session; item < records; item += sessions) {
+                    try {
+                        Response response = connection.send(new Request(Request.Method.PUT, keyOf(item), newValue(random)));
+                        if (response.getStatus() != Response.Status.SUCCEED) {
+                            loadErrors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        loadErrors.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        logger.log(Level.INFO, "Loading completed with " + loadErrors.get() + " errors.");
+    }
+
+    /**
+     * Send requests until the end time.
+     *
+     * @param seed
+     * @param startTime
+     * @param endTime
+     */
+    private void runSession(long seed, long startTime, long endTime) {
+        Random random = new Random(seed);
+        ClusterConnection connection;
+        try {
+            connection = connect();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Remote connection failed: " + e);
+            return;
+        }
+
+        // Each session takes an equal share of the rate in the open loop.
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) * sessions / rate);
+        // Start the sessions at different times, so they don't send together.
+        long intendedTime = startTime + (openLoop ? interval * seed / sessions : 0l);
+        while (true) {
+            long now = System.nanoTime();
+            if (openLoop) {
+                if (intendedTime >= endTime) {
+                    break;
+                }
+                if (now < intendedTime) {
+                    LockSupport.parkNanos(intendedTime - now);
+                }
+            } else {
+                if (now >= endTime) {
+                    break;
+                }
+                intendedTime = now;
+            }
+            execute(connection, random, intendedTime);
+            intendedTime += interval;
+        }
+    }
+
+    /**
+     * Send one request and record its latency from the intended start time, in microseconds.
+     *
+     * @param connection
+     * @param random
+     * @param intendedTime
+     */
+    private void execute(ClusterConnection connection, Random random, long intendedTime) {
+        String key = keyOf(nextItem(random));
+        boolean read = random.nextDouble() < readProportion;
+        boolean failed;
+        try {
+            if (read) {
+                Response response = connection.send(new Request(Request.Method.GET, key, null));
+                // A missing key is still an answer, only the shed requests have failed.
+                failed = response.getStatus() == Response.Status.OVERLOADED;
+            } else {
+                Response response = connection.send(new Request(Request.Method.PUT, key, newValue(random)));
+                failed = response.getStatus() != Response.Status.SUCCEED;
+            }
+        } catch (Exception e) {
+            failed = true;
+        }
+
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedTime);
+        if (read) {
+            readLatency.recordValue(latency);
+            if (failed) {
+                readErrors.incrementAndGet();
+            }
+        } else {
+            updateLatency.recordValue(latency);
+            if (failed) {
+                updateErrors.incrementAndGet();
+            }
+        }
+    }
+
+    private long nextItem(Random random) {
+        return zipfian ? zipfianGenerator.next(random) : random.nextInt(records);
+    }
+
+    private String keyOf(long item) {
+        return "user" + item;
+    }
+
+    /**
+     * Create a random value. It only uses letters and digits, so it can't break the request format.
+     *
+     * @param random
+     * @return
+     */
+    private String newValue(Random random) {
+        char[] value = new char[valueSize];
+        for (int i = 0; i < valueSize; i++) {
+            value[i] = VALUE_CHARS.charAt(random.nextInt(VALUE_CHARS.length()));
+        }
+        return new String(value);
+    }
+
+    /**
+     * Print the throughput and the latency percentiles of each type of operations.
+     *
+     * @param elapsedNanos
+     */
+    private void report(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        long total = readLatency.getTotalCount() + updateLatency.getTotalCount();
+        System.out.println(String.format("[OVERALL] mode: %s, distribution: %s, sessions: %d, runtime: %.1f s, throughput: %.1f ops/s",
+                openLoop ? "open" : "closed", zipfian ? "zipfian" : "uniform", sessions, elapsedSeconds, total / elapsedSeconds));
+        printHistogram("READ", readLatency, readErrors.get(), elapsedSeconds);
+        printHistogram("UPDATE", updateLatency, updateErrors.get(), elapsedSeconds);
+    }
+
+    private void printHistogram(String operation, LatencyHistogram histogram, long errors, double elapsedSeconds) {
+        System.out.println(String.format("[%s] operations: %d, errors: %d, throughput: %.1f ops/s, latency (us) mean: %.1f, p50: %d, p99: %d, p99.9: %d, max: %d",
+                operation, histogram.getTotalCount(), errors, histogram.getTotalCount() / elapsedSeconds, histogram.getMean(),
+                histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0),
+                histogram.getValueAtPercentile(99.9), histogram.getMax()));
+    }
+}
@@ -0,0 +1,88 @@
+package client;
+
+import java.util.Random;
+
+/**
+ * Generates the item numbers of a Zipfian distribution, the same way YCSB does.
+ * Item 0 is the most popular one. The items are scrambled by a hash,
+ * so the popular items are spread over the key space.
+ */
+public class ZipfianGenerator {
+    public static final double ZIPFIAN_CONSTANT = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+
+    /**
+     * Constructor.
+     *
+     * @param items
+     */
+    public ZipfianGenerator(long items) {
+        this(items, ZIPFIAN_CONSTANT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param items
+     * @param theta
+     */
+    public ZipfianGenerator(long items, double theta) {
+        if (items <= 0) {
+            throw new IllegalArgumentException("The number of items should be positive.");
+        }
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        double zeta2 = zeta(2, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0.0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1.0 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    /**
+     * Get the next item, between 0 and items - 1.
+     *
+     * @param random
+     * @return
+     */
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        long item;
+        if (uz < 1.0) {
+            item = 0;
+        } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+            item = 1;
+        } else {
+            item = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        }
+        return scramble(Math.min(item, items - 1));
+    }
+
+    /**
+     * Spread the item over the items with the FNV-1a hash.
+     *
+     * @param item
+     * @return
+     */
+    private long scramble(long item) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= (item >>> (i * 8)) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return Math.floorMod(hash, items);
+    }
+}
@@ -3,11 +3,17 @@ package common;
 import common.Request;
 
 import java.io.Serializable;
+import java.util.List;
 
 public class Accept implements Serializable {
     private String serverID;
+    private int groupID;
     private long proposalNum;
     private Request request;
+    // Answered to a read barrier, the newest write of the key known to the acceptor.
+    private Accept newestWrite;
+    // Answered to a read barrier, the imports of the group the acceptor has accepted or learned, and not installed yet.
+    private List<Accept> imports;
 
     public String getServerID() {
         return serverID;
@@ -17,6 +23,14 @@ public class Accept implements Serializable {
         this.serverID = serverID;
     }
 
+    public int getGroupID() {
+        return groupID;
+    }
+
+    public void setGroupID(int groupID) {
+        this.groupID = groupID;
+    }
+
     public long getProposalNum() {
         return proposalNum;
     }
@@ -32,4 +46,20 @@ public class Accept implements Serializable {
     public void setValue(Request request) {
         this.request = request;
     }
+
+    public Accept getNewestWrite() {
+        return newestWrite;
+    }
+
+    public void setNewestWrite(Accept newestWrite) {
+        this.newestWrite = newestWrite;
+    }
+
+    public List<Accept> getImports() {
+        return imports;
+    }
+
+    public void setImports(List<Accept> imports) {
+        this.imports = imports;
+    }
 }
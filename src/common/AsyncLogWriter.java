@@ -0,0 +1,222 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Lock-free ring buffer of log events, drained by one background writer thread.
+ * The events are allocated once, the request threads only claim a slot and fill it in,
+ * so they never block on the console or a file. When the buffer is full the event is dropped
+ * and counted, instead of making the request thread wait.
+ * The messages are built by the writer thread, which sleeps while the buffer is empty
+ * and is woken up by the next event published.
+ */
+public class AsyncLogWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MASK = BUFFER_SIZE - 1;
+
+    private static final AsyncLogWriter instance = new AsyncLogWriter();
+
+    /**
+     * One slot of the ring buffer.
+     */
+    private static class Event {
+        // The sequence of the event in the slot, set last when the event is published.
+        volatile long sequence = -1;
+        java.util.logging.Logger sink;
+        Level level;
+        long timeMillis;
+        long threadID;
+        String pattern;
+        int argCount;
+        Object arg0;
+        Object arg1;
+        Supplier<String> supplier;
+
+        void clear() {
+            sink = null;
+            level = null;
+            pattern = null;
+            arg0 = null;
+            arg1 = null;
+            supplier = null;
+        }
+    }
+
+    private final Event[] ring;
+    private final AtomicLong claimed;
+    private volatile long consumed;
+    private final LongAdder dropped;
+    private final Thread writer;
+    // Set while the writer is about to sleep or sleeping, so a publisher knows it has to wake it up.
+    private volatile boolean sleeping;
+
+    private AsyncLogWriter() {
+        this.ring = new Event[BUFFER_SIZE];
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            ring[i] = new Event();
+        }
+        this.claimed = new AtomicLong();
+        this.dropped = new LongAdder();
+        this.writer = new Thread(this::drainLoop, "async-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Write the events left in the buffer when the JVM exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "async-log-flush"));
+    }
+
+    public static AsyncLogWriter getInstance() {
+        return instance;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Publish an event, either a pattern with up to two arguments or a supplier of the message.
+     *
+     * @param sink
+     * @param level
+     * @param pattern
+     * @param argCount
+     * @param arg0
+     * @param arg1
+     * @param supplier
+     */
+    void publish(java.util.logging.Logger sink, Level level, String pattern, int argCount, Object arg0, Object arg1, Supplier<String> supplier) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= BUFFER_SIZE) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Event event = ring[(int) (sequence & MASK)];
+        event.sink = sink;
+        event.level = level;
+        event.timeMillis = System.currentTimeMillis();
+        event.threadID = Thread.currentThread().getId();
+        event.pattern = pattern;
+        event.argCount = argCount;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.supplier = supplier;
+        event.sequence = sequence;
+        // The sequence is written before the flag is read, and the writer sets the flag before it checks
+        // the sequence again, so either the writer sees the event or the publisher sees the writer sleeping.
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            if (drain()) {
+                continue;
+            }
+            sleeping = true;
+            if (!hasPublished()) {
+                LockSupport.park(this);
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Check whether the next event to write has been published.
+     *
+     * @return
+     */
+    private boolean hasPublished() {
+        long next = consumed;
+        return ring[(int) (next & MASK)].sequence == next;
+    }
+
+    /**
+     * Write the published events in order.
+     *
+     * @return whether any event was written
+     */
+    private synchronized boolean drain() {
+        boolean wrote = false;
+        long next = consumed;
+        while (true) {
+            Event event = ring[(int) (next & MASK)];
+            if (event.sequence != next) {
+                break;
+            }
+            write(event);
+            event.clear();
+            next++;
+            consumed = next;
+            wrote = true;
+        }
+        return wrote;
+    }
+
+    /**
+     * Write every event published so far.
+     */
+    public void flush() {
+        long target = claimed.get();
+        while (consumed < target) {
+            if (!drain()) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void write(Event event) {
+        String message;
+        try {
+            if (event.supplier != null) {
+                message = event.supplier.get();
+            } else if (event.argCount == 0) {
+                message = event.pattern;
+            } else {
+                message = format(event.pattern, event.arg0, event.arg1);
+            }
+        } catch (RuntimeException e) {
+            message = "Could not build the log message: " + e;
+        }
+        LogRecord record = new LogRecord(event.level, message);
+        record.setMillis(event.timeMillis);
+        record.setThreadID((int) event.threadID);
+        record.setLoggerName(event.sink.getName());
+        // The caller is not on the stack of the writer thread, so don't let the formatter look for it.
+        record.setSourceClassName(null);
+        record.setSourceMethodName(null);
+        event.sink.log(record);
+    }
+
+    /**
+     * Replace the "{}" in the pattern by the arguments in order.
+     *
+     * @param pattern
+     * @param arg0
+     * @param arg1
+     * @return
+     */
+    static String format(String pattern, Object arg0, Object arg1) {
+        int first = pattern.indexOf("{}");
+        if (first < 0) {
+            return pattern;
+        }
+        StringBuilder message = new StringBuilder(pattern.length() + 32);
+        message.append(pattern, 0, first).append(arg0);
+        int second = pattern.indexOf("{}", first + 2);
+        if (second < 0) {
+            return message.append(pattern, first + 2, pattern.length()).toString();
+        }
+        message.append(pattern, first + 2, second).append(arg1);
+        return message.append(pattern, second + 2, pattern.length()).toString();
+    }
+}
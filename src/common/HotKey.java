@@ -0,0 +1,47 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * A key which receives a large share of the requests, with its estimated count.
+ */
+public class HotKey implements Serializable {
+    public enum Type {
+        READ,
+        WRITE
+    }
+
+    private final String key;
+    private final Type type;
+    private final long count;
+
+    /**
+     * Constructor.
+     *
+     * @param key
+     * @param type
+     * @param count
+     */
+    public HotKey(String key, Type type, long count) {
+        this.key = key;
+        this.type = type;
+        this.count = count;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "key: " + key + ", type: " + type + ", count: " + count;
+    }
+}
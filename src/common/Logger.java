@@ -2,14 +2,24 @@ package common;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 
+/**
+ * Logger of the request path.
+ * The level is checked first, and the message is only built by the background writer
+ * of AsyncLogWriter, so a disabled level costs nothing and the caller never waits on I/O.
+ * The messages take "{}" placeholders, or a supplier for anything more complex.
+ */
 public class Logger {
     // Format the Logger Date in milliseconds precision.
     private java.util.logging.Logger logger;
+    private final AsyncLogWriter writer;
+
     public Logger() {
         logger = java.util.logging.Logger.getLogger(Logger.class.getName());
+        writer = AsyncLogWriter.getInstance();
 //        try {
 //            InputStream stream = Logger.class.getClassLoader().getResourceAsStream("resources/resource.properties");
 //            LogManager.getLogManager().readConfiguration(stream);
@@ -19,12 +29,63 @@ public class Logger {
 //        }
     }
 
+    public boolean isLoggable(Level currentLevel) {
+        return logger != null && logger.isLoggable(currentLevel);
+    }
+
     public void log(Level currentLevel, String message) {
         if (logger != null) {
-            logger.log(currentLevel, message);
+            if (logger.isLoggable(currentLevel)) {
+                writer.publish(logger, currentLevel, message, 0, null, null, null);
+            }
         } else {
             System.out.println("Logger is not initialized.");
         }
     }
-}
 
+    /**
+     * Log a message with one "{}" placeholder.
+     *
+     * @param currentLevel
+     * @param pattern
+     * @param arg
+     */
+    public void log(Level currentLevel, String pattern, Object arg) {
+        if (isLoggable(currentLevel)) {
+            writer.publish(logger, currentLevel, pattern, 1, arg, null, null);
+        }
+    }
+
+    /**
+     * Log a message with two "{}" placeholders.
+     *
+     * @param currentLevel
+     * @param pattern
+     * @param arg0
+     * @param arg1
+     */
+    public void log(Level currentLevel, String pattern, Object arg0, Object arg1) {
+        if (isLoggable(currentLevel)) {
+            writer.publish(logger, currentLevel, pattern, 2, arg0, arg1, null);
+        }
+    }
+
+    /**
+     * Log a message built by the supplier, only if the level is enabled.
+     *
+     * @param currentLevel
+     * @param message
+     */
+    public void log(Level currentLevel, Supplier<String> message) {
+        if (isLoggable(currentLevel)) {
+            writer.publish(logger, currentLevel, null, 0, null, null, message);
+        }
+    }
+
+    /**
+     * Write every message logged so far.
+     */
+    public void flush() {
+        writer.flush();
+    }
+}
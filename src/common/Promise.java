@@ -6,9 +6,13 @@ import java.io.Serializable;
 
 public class Promise implements Serializable {
     private String serverID;
+    private int groupID;
     private long proposalNum;
     private long prevProposalNum;
     private Request prevRequest;
+    // The newest proposal the acceptor has learned or accepted a write of in the group,
+    // which the numbers of the proposer must move past.
+    private long highestKnownProposalNum;
 
     public String getServerID() {
         return serverID;
@@ -26,6 +30,14 @@ public class Promise implements Serializable {
         this.prevProposalNum = prevProposalNum;
     }
 
+    public int getGroupID() {
+        return groupID;
+    }
+
+    public void setGroupID(int groupID) {
+        this.groupID = groupID;
+    }
+
     public long getProposalNum() {
         return proposalNum;
     }
@@ -41,4 +53,12 @@ public class Promise implements Serializable {
     public void setPrevAcceptedValue(Request prevRequest) {
         this.prevRequest = prevRequest;
     }
+
+    public long getHighestKnownProposalNum() {
+        return highestKnownProposalNum;
+    }
+
+    public void setHighestKnownProposalNum(long highestKnownProposalNum) {
+        this.highestKnownProposalNum = highestKnownProposalNum;
+    }
 }
@@ -9,12 +9,33 @@ public class Request implements Serializable {
     public enum Method {
         PUT,
         GET,
-        DELETE
+        DELETE,
+        // A bulk import, the key is the ID of the segment and the value the server which has it.
+        IMPORT
+    }
+
+    /**
+     * How fresh the answer of a GET must be.
+     * Without a level, the GET is served by the connected server as it is.
+     */
+    public enum Consistency {
+        LINEARIZABLE,
+        BOUNDED_STALENESS,
+        READ_YOUR_WRITES
     }
 
     private Method method;
     private String key;
     private String value;
+    // Set when the request has been forwarded to the leader of its group.
+    private boolean forwarded;
+    // The client which sent the request, kept when the request is forwarded, used for the fair queuing.
+    private String clientID;
+    private Consistency consistency;
+    // Used by BOUNDED_STALENESS.
+    private long maxStalenessMillis;
+    // Used by READ_YOUR_WRITES, the session token of the last write or read of the key by the client.
+    private long sessionToken;
 
     public Method getMethod() {
         return method;
@@ -25,6 +46,36 @@ public class Request implements Serializable {
     public String getValue() {
         return value;
     }
+    public boolean isForwarded() {
+        return forwarded;
+    }
+    public void setForwarded(boolean forwarded) {
+        this.forwarded = forwarded;
+    }
+    public String getClientID() {
+        return clientID;
+    }
+    public void setClientID(String clientID) {
+        this.clientID = clientID;
+    }
+    public Consistency getConsistency() {
+        return consistency;
+    }
+    public void setConsistency(Consistency consistency) {
+        this.consistency = consistency;
+    }
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+    public long getSessionToken() {
+        return sessionToken;
+    }
+    public void setSessionToken(long sessionToken) {
+        this.sessionToken = sessionToken;
+    }
 
     /**
      * Constructor for the request.
@@ -43,6 +94,7 @@ public class Request implements Serializable {
      * Validate the request input based on different methods.
      * If it's PUT, then it should contain both key and value.
      * If it's GET or DELETE, then it should only contain a key.
+     * Only GET can carry a consistency level.
      *
      * @param request
      * @return
@@ -59,6 +111,9 @@ public class Request implements Serializable {
         } else {
             return false;
         }
+        if (request.consistency != null && request.getMethod() != Method.GET) {
+            return false;
+        }
         return true;
     }
 
@@ -71,11 +126,11 @@ public class Request implements Serializable {
      */
     @Override
     public String toString() {
-        String res = String.format("method: %s, key: %s", method.toString(), key);
+        StringBuilder res = new StringBuilder(32).append("method: ").append(method).append(", key: ").append(key);
         if (value != null) {
-            res += ", value: " + value;
+            res.append(", value: ").append(value);
         }
-        return res;
+        return res.toString();
     }
 
     /**
@@ -91,8 +146,9 @@ public class Request implements Serializable {
         }
 
         // The input should be in a format of "method, key" or "method, key, value".
+        // A GET can be followed by "consistency: " and "staleness: " in milliseconds.
         String[] parts = input.trim().split(",");
-        if (parts.length != 2 && parts.length != 3) {
+        if (parts.length < 2 || parts.length > 4) {
             throw new IllegalArgumentException("Malformed request with " + parts.length + " parts.");
         }
 
@@ -100,6 +156,8 @@ public class Request implements Serializable {
         Method method = null;
         String key = null;
         String val = null;
+        Consistency consistency = null;
+        long staleness = 0l;
         for (String part : parts) {
             String[] pair = part.trim().split(":");
             // It should contain the name and the corresponding value.
@@ -112,9 +170,15 @@ public class Request implements Serializable {
                 key = pair[1].trim();
             } else if (pair[0].trim().equals("value")){
                 val = pair[1].trim();
+            } else if (pair[0].trim().equals("consistency")) {
+                consistency = Consistency.valueOf(pair[1].trim());
+            } else if (pair[0].trim().equals("staleness")) {
+                staleness = Long.parseLong(pair[1].trim());
             }
         }
         Request result = new Request(method, key, val);
+        result.setConsistency(consistency);
+        result.setMaxStalenessMillis(staleness);
 
         // Validate the request before finishing.
         if (!isValid(result)) {
@@ -8,19 +8,32 @@ import java.io.Serializable;
 public class Response implements Serializable {
     public enum Status {
         SUCCEED,
-        FAILED
+        FAILED,
+        // The server is overloaded and has shed the request, the client should back off.
+        OVERLOADED
     }
 
     private String code;
     private Status status;
     private String value;
+    // The proposal number of the last write known to the server, used for read-your-writes.
+    private long sessionToken;
 
+    public String getCode() {
+        return code;
+    }
     public Status getStatus() {
         return status;
     }
     public String getValue() {
         return value;
     }
+    public long getSessionToken() {
+        return sessionToken;
+    }
+    public void setSessionToken(long sessionToken) {
+        this.sessionToken = sessionToken;
+    }
 
     /**
      * Constructor for the response.
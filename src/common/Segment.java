@@ -0,0 +1,182 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable file of sorted pairs of key and value, used by the bulk import.
+ * A segment is built once from a sorted text file, then copied to the servers as it is.
+ * Its ID is the SHA-256 of its content, so the ID is also the checksum of the copies.
+ *
+ * Format: the magic number and the version, then the length and UTF-8 bytes of each key and value,
+ * then -1 and the number of pairs.
+ */
+public class Segment {
+    public static final String EXTENSION = ".seg";
+    // The size of the chunks a segment is sent in over RMI.
+    public static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAGIC = 0x4B565347;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private Segment() {
+    }
+
+    /**
+     * Check that the ID can only name a segment, so it's safe to use in a file name.
+     *
+     * @param segmentID
+     * @return
+     */
+    public static boolean isValidID(String segmentID) {
+        return segmentID != null && ID_PATTERN.matcher(segmentID).matches();
+    }
+
+    /**
+     * Build a segment from a text file with one "key<TAB>value" pair per line, sorted by key.
+     * The keys must be unique, and the values can't contain a line break.
+     *
+     * @param input
+     * @param directory
+     * @return the ID of the segment, which is in the file directory/ID.seg
+     * @throws IOException
+     */
+    public static String build(Path input, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "build", ".tmp");
+        MessageDigest digest = newDigest();
+        long count = 0l;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                     new DigestOutputStream(Files.newOutputStream(temporary), digest), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            String previousKey = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab <= 0) {
+                    throw new IllegalArgumentException("The line " + (count + 1) + " should be in a format of key<TAB>value.");
+                }
+                String key = line.substring(0, tab);
+                if (previousKey != null && previousKey.compareTo(key) >= 0) {
+                    throw new IllegalArgumentException("The keys should be sorted and unique: " + key);
+                }
+                writeString(output, key);
+                writeString(output, line.substring(tab + 1));
+                previousKey = key;
+                count++;
+            }
+            output.writeInt(-1);
+            output.writeLong(count);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        String segmentID = toHex(digest.digest());
+        Files.move(temporary, directory.resolve(segmentID + EXTENSION), StandardCopyOption.REPLACE_EXISTING);
+        return segmentID;
+    }
+
+    /**
+     * Read every pair of the segment in order.
+     *
+     * @param segment
+     * @param consumer
+     * @return the number of pairs
+     * @throws IOException
+     */
+    public static long read(Path segment, BiConsumer<String, String> consumer) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a segment of this version: " + segment);
+            }
+            long count = 0l;
+            while (true) {
+                String key = readString(input);
+                if (key == null) {
+                    break;
+                }
+                consumer.accept(key, readString(input));
+                count++;
+            }
+            if (input.readLong() != count) {
+                throw new IOException("The segment is truncated: " + segment);
+            }
+            return count;
+        } catch (EOFException e) {
+            throw new IOException("The segment is truncated: " + segment, e);
+        }
+    }
+
+    /**
+     * Compute the checksum of the file, which is the ID of a segment with the same content.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static String checksum(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file), digest)) {
+            while (input.read(buffer) != -1) {
+                // The digest is updated by the stream.
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -2,6 +2,7 @@ package common;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public interface ServerInterface extends Remote {
@@ -10,8 +11,19 @@ public interface ServerInterface extends Remote {
     Response put(Request request) throws RemoteException;
     Response get(Request request) throws RemoteException;
     Response delete(Request request) throws RemoteException;
-    Promise prepare(long proposalNum) throws RuntimeException, RemoteException;
-    Accept accept(long proposalNum, Request request) throws RuntimeException, RemoteException;
+    Promise prepare(int groupID, long proposalNum) throws RuntimeException, RemoteException;
+    Accept accept(int groupID, long proposalNum, Request request, List<Accept> commits) throws RuntimeException, RemoteException;
+    Accept fastAccept(int groupID, long proposalNum, Request request) throws RuntimeException, RemoteException;
+    void releaseFastAccept(int groupID, long proposalNum, String key) throws RemoteException;
     void invokeLearner(Accept accepted) throws RemoteException;
+    void learn(String senderID, long safeTime, List<Accept> commits) throws RemoteException;
+    SnapshotChunk getSnapshot(int groupID, String afterKey, int limit) throws RemoteException;
     void registerNewServer(String currentServerID, ServerInterface server) throws RemoteException;
+    ShardRouter getRouter() throws RemoteException;
+    List<HotKey> getHotKeys(HotKey.Type type, int k) throws RemoteException;
+    String getMetricsText() throws RemoteException;
+    void writeSegmentChunk(String segmentID, long offset, byte[] chunk) throws RemoteException;
+    void sealSegment(String segmentID) throws RemoteException;
+    byte[] fetchSegment(String segmentID, long offset, int length) throws RemoteException;
+    Response bulkImport(String segmentID) throws RemoteException;
 }
\ No newline at end of file
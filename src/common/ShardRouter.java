@@ -0,0 +1,77 @@
+package common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Routing table of the key space.
+ * The keys are hash-partitioned into a fixed number of Paxos groups,
+ * and each group is led by one of the servers of the cluster.
+ */
+public class ShardRouter implements Serializable {
+    private final int groupNum;
+    private final List<String> serverIDs;
+
+    /**
+     * Constructor.
+     *
+     * @param groupNum
+     * @param serverIDs
+     */
+    public ShardRouter(int groupNum, List<String> serverIDs) {
+        if (groupNum <= 0) {
+            throw new IllegalArgumentException("The number of groups should be positive.");
+        }
+        this.groupNum = groupNum;
+        // Sort the servers so that every server computes the same leaders.
+        this.serverIDs = new ArrayList<>(serverIDs);
+        Collections.sort(this.serverIDs);
+    }
+
+    public int getGroupNum() {
+        return groupNum;
+    }
+
+    public List<String> getServerIDs() {
+        return Collections.unmodifiableList(serverIDs);
+    }
+
+    /**
+     * Get the group which owns the key.
+     *
+     * @param key
+     * @return
+     */
+    public int groupFor(String key) {
+        int hash = key.hashCode();
+        // Spread the higher bits, the same as HashMap does.
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, groupNum);
+    }
+
+    /**
+     * Get the server which leads the group.
+     * The groups are spread over the servers in a round-robin way.
+     *
+     * @param groupID
+     * @return
+     */
+    public String leaderFor(int groupID) {
+        if (serverIDs.isEmpty()) {
+            return null;
+        }
+        return serverIDs.get(groupID % serverIDs.size());
+    }
+
+    /**
+     * Get the server which leads the group of the key.
+     *
+     * @param key
+     * @return
+     */
+    public String leaderForKey(String key) {
+        return leaderFor(groupFor(key));
+    }
+}
@@ -0,0 +1,49 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A part of the snapshot of one Paxos group: the last write of the keys after a key, in the order of the keys.
+ * A deleted key is sent as a DELETE, so the server catching up removes it too.
+ */
+public class SnapshotChunk implements Serializable {
+    private final int groupID;
+    private final List<Accept> commits;
+    // Set on the last chunk of the group.
+    private final boolean last;
+
+    /**
+     * Constructor.
+     *
+     * @param groupID
+     * @param commits
+     * @param last
+     */
+    public SnapshotChunk(int groupID, List<Accept> commits, boolean last) {
+        this.groupID = groupID;
+        this.commits = commits;
+        this.last = last;
+    }
+
+    public int getGroupID() {
+        return groupID;
+    }
+
+    public List<Accept> getCommits() {
+        return commits;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * Get the last key of the chunk, where the next chunk starts after.
+     *
+     * @return the key, or null if the chunk is empty
+     */
+    public String getLastKey() {
+        return commits.isEmpty() ? null : commits.get(commits.size() - 1).getValue().getKey();
+    }
+}
@@ -0,0 +1,116 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control of the write path.
+ * Bounds the number of writes queued or running on the server, shares the queue
+ * fairly between the clients, and sheds the writes which can't finish before their deadline.
+ */
+public class AdmissionController {
+    private final int maxQueueDepth;
+    private final long admissionTimeoutMillis;
+
+    private int queued;
+    private final Map<String, Integer> queuedPerClient;
+    // Moving average of the time a Paxos round takes, in nanoseconds.
+    private final AtomicLong averageCommitNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param maxQueueDepth
+     * @param admissionTimeoutMillis
+     */
+    public AdmissionController(int maxQueueDepth, long admissionTimeoutMillis) {
+        if (maxQueueDepth <= 0) {
+            throw new IllegalArgumentException("The queue depth should be positive.");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        this.queuedPerClient = new HashMap<>();
+        this.averageCommitNanos = new AtomicLong();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Try to admit a write of the client.
+     * A client can hold at most its fair share of the queue, which is the queue depth divided by
+     * the number of clients with queued writes plus one. The share left over is kept for a new client,
+     * so a single client can't fill the queue and lock the others out.
+     *
+     * @param clientID
+     * @return
+     */
+    public synchronized boolean tryAdmit(String clientID) {
+        if (queued >= maxQueueDepth) {
+            return false;
+        }
+        Integer clientQueued = queuedPerClient.get(clientID);
+        int fairShare = Math.max(1, maxQueueDepth / (queuedPerClient.size() + 1));
+        if (clientQueued != null && clientQueued >= fairShare) {
+            return false;
+        }
+        queuedPerClient.put(clientID, clientQueued == null ? 1 : clientQueued + 1);
+        queued++;
+        return true;
+    }
+
+    /**
+     * Release a write admitted before.
+     *
+     * @param clientID
+     */
+    public synchronized void release(String clientID) {
+        Integer clientQueued = queuedPerClient.get(clientID);
+        if (clientQueued == null) {
+            return;
+        }
+        if (clientQueued <= 1) {
+            queuedPerClient.remove(clientID);
+        } else {
+            queuedPerClient.put(clientID, clientQueued - 1);
+        }
+        queued--;
+    }
+
+    /**
+     * Get the deadline of a write admitted now, in System.nanoTime().
+     *
+     * @return
+     */
+    public long newDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(admissionTimeoutMillis);
+    }
+
+    /**
+     * Check whether a write behind the given number of writes can still meet its deadline.
+     *
+     * @param writesAhead
+     * @param deadline
+     * @return
+     */
+    public boolean canMeetDeadline(int writesAhead, long deadline) {
+        long estimatedWait = writesAhead * averageCommitNanos.get();
+        return System.nanoTime() + estimatedWait < deadline;
+    }
+
+    /**
+     * Record how long a Paxos round took.
+     *
+     * @param commitNanos
+     */
+    public void recordCommit(long commitNanos) {
+        averageCommitNanos.updateAndGet(average -> average == 0 ? commitNanos : (average * 7 + commitNanos) / 8);
+    }
+}
@@ -0,0 +1,26 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source of the time used by the Paxos rounds: the proposal numbers, the time a value
+ * was learned, and the backoff between rounds.
+ * The simulator replaces it with a virtual clock.
+ */
+public interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long millis) throws InterruptedException {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+    };
+
+    long currentTimeMillis();
+
+    void sleep(long millis) throws InterruptedException;
+}
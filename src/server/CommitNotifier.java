@@ -0,0 +1,290 @@
+package server;
+
+import common.Accept;
+import common.ServerInterface;
+import common.SnapshotChunk;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Sends the commit notices of the values chosen by the current server to every other server,
+ * including the ones which were not in the accept quorum.
+ * The proposer answers the client right after the accept quorum, and the notices follow,
+ * either on the next accept sent to the server or in batches from a background thread.
+ * The notices of a server which can't be reached are kept until it can. A server which has
+ * fallen more than the backlog behind gets a snapshot of every key instead, in chunks of keys.
+ * Every heartbeat interval, every server gets a batch even if it's empty, with the safe time:
+ * the server has every notice published before it, which bounds the staleness of its reads.
+ */
+public class CommitNotifier {
+    /**
+     * Source of the chunks of the snapshot of a group, in the order of the keys.
+     */
+    public interface SnapshotSource {
+        SnapshotChunk getSnapshot(int groupID, String afterKey, int limit) throws RemoteException;
+    }
+
+    private final String serverID;
+    private final Registry registry;
+    private final Metrics metrics;
+    private final Clock clock;
+    private final int maxBacklog;
+    private final long heartbeatIntervalMillis;
+    private final int groupNum;
+    private final int snapshotChunkSize;
+    private final SnapshotSource snapshot;
+
+    // The notices not delivered yet, by server.
+    private final Map<String, List<Accept>> outboxes;
+    // The servers which will get a snapshot instead of their notices.
+    private final Set<String> laggingServers;
+    // The number of batches taken for each server and not confirmed or restored yet.
+    private final Map<String, Integer> inTransit;
+    private long lastHeartbeatTime;
+    private final ScheduledExecutorService sender;
+    private final AtomicBoolean flushQueued;
+
+    /**
+     * Constructor.
+     * Without a flush interval, nothing is sent in the background and the caller flushes the notices.
+     *
+     * @param serverID
+     * @param registry
+     * @param metrics
+     * @param clock
+     * @param maxBacklog
+     * @param flushIntervalMillis
+     * @param heartbeatIntervalMillis
+     * @param groupNum
+     * @param snapshotChunkSize
+     * @param snapshot
+     */
+    public CommitNotifier(String serverID, Registry registry, Metrics metrics, Clock clock, int maxBacklog,
+                          long flushIntervalMillis, long heartbeatIntervalMillis, int groupNum, int snapshotChunkSize,
+                          SnapshotSource snapshot) {
+        this.serverID = serverID;
+        this.registry = registry;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.maxBacklog = maxBacklog;
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.groupNum = groupNum;
+        this.snapshotChunkSize = snapshotChunkSize;
+        this.snapshot = snapshot;
+        this.outboxes = new HashMap<>();
+        this.laggingServers = new HashSet<>();
+        this.inTransit = new HashMap<>();
+        this.flushQueued = new AtomicBoolean();
+        if (flushIntervalMillis > 0) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "commit-notifier-" + serverID);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::flushQueued, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            this.sender = executor;
+        } else {
+            this.sender = null;
+        }
+    }
+
+    /**
+     * Queue the notice of a chosen value for every other server, and wake up the sender.
+     *
+     * @param committed
+     * @throws RemoteException
+     */
+    public void publish(Accept committed) throws RemoteException {
+        String[] names = registry.list();
+        synchronized (this) {
+            for (String name : names) {
+                // The current server has applied the value already.
+                if (name.equals("Server") || name.equals(serverID) || laggingServers.contains(name)) {
+                    continue;
+                }
+                List<Accept> outbox = outboxes.computeIfAbsent(name, id -> new ArrayList<>());
+                outbox.add(committed);
+                if (outbox.size() > maxBacklog) {
+                    Server.logger.log(Level.INFO, "The server has fallen behind, it will get a snapshot: {}", name);
+                    outboxes.remove(name);
+                    laggingServers.add(name);
+                }
+            }
+        }
+        if (sender != null && flushQueued.compareAndSet(false, true)) {
+            sender.execute(this::flushQueued);
+        }
+    }
+
+    /**
+     * Take the notices of the server, to send them on the next accept.
+     * The caller confirms or restores them once the accept returns.
+     *
+     * @param name
+     * @return
+     */
+    public synchronized List<Accept> take(String name) {
+        List<Accept> outbox = outboxes.remove(name);
+        if (outbox == null) {
+            return Collections.emptyList();
+        }
+        inTransit.merge(name, 1, Integer::sum);
+        return outbox;
+    }
+
+    /**
+     * Confirm the notices taken for the server were delivered.
+     *
+     * @param name
+     * @param commits
+     */
+    public synchronized void confirm(String name, List<Accept> commits) {
+        if (!commits.isEmpty()) {
+            inTransit.computeIfPresent(name, (id, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * Put back the notices which could not be delivered, before the ones queued since.
+     *
+     * @param name
+     * @param commits
+     */
+    public synchronized void restore(String name, List<Accept> commits) {
+        confirm(name, commits);
+        if (commits.isEmpty() || laggingServers.contains(name)) {
+            return;
+        }
+        List<Accept> outbox = new ArrayList<>(commits);
+        outbox.addAll(outboxes.getOrDefault(name, Collections.emptyList()));
+        if (outbox.size() > maxBacklog) {
+            laggingServers.add(name);
+        } else {
+            outboxes.put(name, outbox);
+        }
+    }
+
+    public synchronized int getBacklog() {
+        int backlog = 0;
+        for (List<Accept> outbox : outboxes.values()) {
+            backlog += outbox.size();
+        }
+        return backlog + laggingServers.size();
+    }
+
+    private void flushQueued() {
+        flushQueued.set(false);
+        flush();
+    }
+
+    /**
+     * Send the queued notices to every server, and the snapshots to the lagging ones.
+     * Once every heartbeat interval, the servers without notices get an empty batch with the safe time.
+     *
+     * @return whether every server got its notices
+     */
+    public boolean flush() {
+        Set<String> names = new TreeSet<>();
+        boolean heartbeat = false;
+        synchronized (this) {
+            names.addAll(outboxes.keySet());
+            names.addAll(laggingServers);
+            long now = clock.currentTimeMillis();
+            if (now - lastHeartbeatTime >= heartbeatIntervalMillis) {
+                try {
+                    for (String name : registry.list()) {
+                        if (!name.equals("Server") && !name.equals(serverID)) {
+                            names.add(name);
+                        }
+                    }
+                    heartbeat = true;
+                    lastHeartbeatTime = now;
+                } catch (RemoteException e) {
+                    Server.logger.log(Level.INFO, "Could not list the servers for the heartbeat: {}", e);
+                }
+            }
+        }
+
+        boolean delivered = true;
+        for (String name : names) {
+            boolean lagging;
+            long safeTime;
+            List<Accept> commits;
+            synchronized (this) {
+                // Every notice published before now is in this batch or has been delivered,
+                // unless a batch taken for an accept is still on its way, which may arrive later.
+                safeTime = inTransit.containsKey(name) ? 0l : clock.currentTimeMillis();
+                // The notices published from now on are queued again, the snapshot covers the ones before.
+                lagging = laggingServers.remove(name);
+                commits = lagging ? null : take(name);
+            }
+            if (!lagging && commits.isEmpty() && !heartbeat) {
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                ServerInterface server = (ServerInterface) registry.lookup(name);
+                if (lagging) {
+                    sendSnapshot(server, safeTime);
+                } else {
+                    server.learn(serverID, safeTime, commits);
+                    confirm(name, commits);
+                }
+                metrics.recordPeerSince(name, Metrics.PeerHistogram.LEARN_MICROS, startTime);
+                metrics.add(lagging ? Metrics.Counter.SNAPSHOT_CATCH_UPS : Metrics.Counter.COMMIT_NOTICES_SENT,
+                        lagging ? 1l : commits.size());
+            } catch (NotBoundException | RemoteException e) {
+                Server.logger.log(Level.INFO, "Could not send the commit notices to the server: {}", name);
+                metrics.recordPeerFailure(name);
+                metrics.increment(Metrics.Counter.COMMIT_NOTICE_FAILURES);
+                delivered = false;
+                if (lagging) {
+                    synchronized (this) {
+                        outboxes.remove(name);
+                        laggingServers.add(name);
+                    }
+                } else {
+                    restore(name, commits);
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Send the snapshot of every group to the server, one chunk at a time.
+     * The safe time is sent with the last chunk, since it only holds once every chunk has been learned.
+     *
+     * @param server
+     * @param safeTime
+     * @throws RemoteException
+     */
+    private void sendSnapshot(ServerInterface server, long safeTime) throws RemoteException {
+        for (int groupID = 0; groupID < groupNum; groupID++) {
+            String afterKey = null;
+            SnapshotChunk chunk;
+            do {
+                chunk = snapshot.getSnapshot(groupID, afterKey, snapshotChunkSize);
+                boolean end = chunk.isLast() && groupID == groupNum - 1;
+                server.learn(serverID, end ? safeTime : 0l, chunk.getCommits());
+                afterKey = chunk.getLastKey();
+            } while (!chunk.isLast());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch.
+ * Estimates the count of a key in a fixed amount of memory, it never under-estimates.
+ * Not thread-safe.
+ */
+public class CountMinSketch {
+    private static final int[] SEEDS = new int[]{0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646C};
+
+    private final int depth;
+    private final int width;
+    private final long[][] counts;
+
+    /**
+     * Constructor.
+     *
+     * @param depth
+     * @param width
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || depth > SEEDS.length || width <= 0) {
+            throw new IllegalArgumentException("The size of the sketch is invalid.");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.counts = new long[depth][width];
+    }
+
+    private int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= (h >>> 15);
+        return Math.floorMod(h, width);
+    }
+
+    /**
+     * Add the count of the key.
+     *
+     * @param key
+     * @param count
+     */
+    public void add(String key, long count) {
+        int hash = key.hashCode();
+        for (int row = 0; row < depth; row++) {
+            counts[row][index(row, hash)] += count;
+        }
+    }
+
+    /**
+     * Estimate the count of the key.
+     *
+     * @param key
+     * @return
+     */
+    public long estimate(String key) {
+        int hash = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[row][index(row, hash)]);
+        }
+        return min;
+    }
+
+    /**
+     * Reset all the counts.
+     */
+    public void clear() {
+        for (long[] row : counts) {
+            Arrays.fill(row, 0l);
+        }
+    }
+}
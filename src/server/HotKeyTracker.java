@@ -0,0 +1,158 @@
+package server;
+
+import common.HotKey;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Detects the hot keys over a sliding window.
+ * Only one of every sampleRate requests is counted, so the request path pays almost nothing.
+ * The window is split into slots, each slot has its own count-min sketch, and a slot is
+ * cleared when the window slides over it. A bounded set of candidates keeps the heaviest keys.
+ */
+public class HotKeyTracker {
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 2048;
+
+    private final int sampleRate;
+    private final long slotMillis;
+    private final int maxCandidates;
+    private final Window[] windows;
+
+    /**
+     * The sliding window of one type of requests.
+     */
+    private class Window {
+        private final HotKey.Type type;
+        private final CountMinSketch[] slots;
+        private long currentSlot;
+        // The heaviest keys of the window with their estimated counts.
+        private final Map<String, Long> candidates = new HashMap<>();
+
+        Window(HotKey.Type type, int slotNum) {
+            this.type = type;
+            this.slots = new CountMinSketch[slotNum];
+            for (int i = 0; i < slotNum; i++) {
+                slots[i] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+            }
+        }
+
+        /**
+         * Slide the window to the current time, clearing the slots which expired.
+         *
+         * @param now
+         */
+        void slide(long now) {
+            long slot = now / slotMillis;
+            if (slot == currentSlot) {
+                return;
+            }
+            long expired = Math.min(slot - currentSlot, slots.length);
+            for (long i = 1; i <= expired; i++) {
+                slots[(int) ((currentSlot + i) % slots.length)].clear();
+            }
+            currentSlot = slot;
+
+            // Refresh the candidates, and drop the ones which left the window.
+            candidates.replaceAll((key, count) -> estimate(key));
+            candidates.values().removeIf(count -> count == 0l);
+        }
+
+        long estimate(String key) {
+            long count = 0l;
+            for (CountMinSketch sketch : slots) {
+                count += sketch.estimate(key);
+            }
+            return count;
+        }
+
+        void record(String key, long now) {
+            slide(now);
+            slots[(int) (currentSlot % slots.length)].add(key, 1l);
+            long count = estimate(key);
+            if (candidates.containsKey(key) || candidates.size() < maxCandidates) {
+                candidates.put(key, count);
+                return;
+            }
+            // Replace the lightest candidate if the key is heavier.
+            String lightest = null;
+            long lightestCount = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                if (entry.getValue() < lightestCount) {
+                    lightest = entry.getKey();
+                    lightestCount = entry.getValue();
+                }
+            }
+            if (count > lightestCount) {
+                candidates.remove(lightest);
+                candidates.put(key, count);
+            }
+        }
+
+        List<HotKey> top(int k, long now) {
+            slide(now);
+            List<HotKey> hotKeys = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                // Scale the sampled count back to the number of requests.
+                hotKeys.add(new HotKey(entry.getKey(), type, entry.getValue() * sampleRate));
+            }
+            hotKeys.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+            return hotKeys.size() > k ? new ArrayList<>(hotKeys.subList(0, k)) : hotKeys;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sampleRate
+     * @param windowMillis
+     * @param slotNum
+     * @param maxCandidates
+     */
+    public HotKeyTracker(int sampleRate, long windowMillis, int slotNum, int maxCandidates) {
+        if (sampleRate <= 0 || slotNum <= 0 || windowMillis < slotNum || maxCandidates <= 0) {
+            throw new IllegalArgumentException("The configuration of the tracker is invalid.");
+        }
+        this.sampleRate = sampleRate;
+        this.slotMillis = windowMillis / slotNum;
+        this.maxCandidates = maxCandidates;
+        this.windows = new Window[HotKey.Type.values().length];
+        for (HotKey.Type type : HotKey.Type.values()) {
+            windows[type.ordinal()] = new Window(type, slotNum);
+        }
+    }
+
+    /**
+     * Sample a request on the key.
+     *
+     * @param type
+     * @param key
+     */
+    public void record(HotKey.Type type, String key) {
+        if (key == null || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        Window window = windows[type.ordinal()];
+        synchronized (window) {
+            window.record(key, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Get the current top K keys of the type.
+     *
+     * @param type
+     * @param k
+     * @return
+     */
+    public List<HotKey> getHotKeys(HotKey.Type type, int k) {
+        Window window = windows[type.ordinal()];
+        synchronized (window) {
+            return window.top(k, System.currentTimeMillis());
+        }
+    }
+}
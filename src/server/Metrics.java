@@ -0,0 +1,368 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+import common.LatencyHistogram;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics registry of a server.
+ * The counters and histograms are lock-free, so the request path can update them from any thread.
+ * They are published as the attributes of a JMX MBean, and as text lines for a local scraper.
+ */
+public class Metrics implements DynamicMBean {
+    public enum Counter {
+        GET_REQUESTS,
+        PUT_REQUESTS,
+        DELETE_REQUESTS,
+        FORWARDED_REQUESTS,
+        OVERLOADED_REQUESTS,
+        PAXOS_ROUNDS,
+        PAXOS_RETRIES,
+        PAXOS_TIMEOUTS,
+        REJECTED_PREPARES,
+        REJECTED_ACCEPTS,
+        FAST_PATH_COMMITS,
+        FAST_PATH_FALLBACKS,
+        COMMIT_NOTICES_PIGGYBACKED,
+        COMMIT_NOTICES_SENT,
+        COMMIT_NOTICE_FAILURES,
+        SNAPSHOT_CATCH_UPS,
+        RECOVERED_WRITES,
+        COLLECTED_TOMBSTONES,
+        IMPORTED_SEGMENTS,
+        IMPORTED_KEYS
+    }
+
+    public enum Histogram {
+        GET_LATENCY_MICROS,
+        PUT_LATENCY_MICROS,
+        DELETE_LATENCY_MICROS,
+        PAXOS_ROUND_MICROS,
+        PREPARE_PHASE_MICROS,
+        ACCEPT_PHASE_MICROS,
+        LEARN_PHASE_MICROS,
+        BACKOFF_SLEEP_MICROS,
+        PROMISE_QUORUM_SIZE,
+        ACCEPT_QUORUM_SIZE
+    }
+
+    public enum PeerHistogram {
+        PREPARE_MICROS,
+        ACCEPT_MICROS,
+        LEARN_MICROS
+    }
+
+    private static final double[] PERCENTILES = new double[]{50.0, 99.0, 99.9};
+    private static final String[] QUANTILE_LABELS = new String[]{"0.5", "0.99", "0.999"};
+
+    private final LongAdder[] counters;
+    private final LatencyHistogram[] histograms;
+    private final ConcurrentMap<String, LatencyHistogram[]> peerHistograms;
+    private final ConcurrentMap<String, LongAdder> peerFailures;
+    private final ConcurrentMap<String, LongSupplier> gauges;
+
+    /**
+     * Constructor.
+     */
+    public Metrics() {
+        this.counters = new LongAdder[Counter.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        this.histograms = new LatencyHistogram[Histogram.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.peerHistograms = new ConcurrentHashMap<>();
+        this.peerFailures = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long value) {
+        counters[counter.ordinal()].add(value);
+    }
+
+    public void record(Histogram histogram, long value) {
+        histograms[histogram.ordinal()].recordValue(value);
+    }
+
+    /**
+     * Record the time since the start, in microseconds.
+     *
+     * @param histogram
+     * @param startNanos
+     */
+    public void recordSince(Histogram histogram, long startNanos) {
+        record(histogram, (System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Record the time a call to the peer took since the start, in microseconds.
+     *
+     * @param peerID
+     * @param histogram
+     * @param startNanos
+     */
+    public void recordPeerSince(String peerID, PeerHistogram histogram, long startNanos) {
+        LatencyHistogram[] perPeer = peerHistograms.computeIfAbsent(peerID, id -> {
+            LatencyHistogram[] created = new LatencyHistogram[PeerHistogram.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            return created;
+        });
+        perPeer[histogram.ordinal()].recordValue((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void recordPeerFailure(String peerID) {
+        peerFailures.computeIfAbsent(peerID, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Register a value read when the metrics are published, such as the size of the store.
+     *
+     * @param name
+     * @param gauge
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    private static String nameOf(Enum<?> metric) {
+        return metric.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static String percentileName(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile).replace('.', '_'));
+    }
+
+    /**
+     * Take a snapshot of every metric, by a flat name.
+     *
+     * @return
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> snapshot = new TreeMap<>();
+        for (Counter counter : Counter.values()) {
+            snapshot.put(nameOf(counter), counters[counter.ordinal()].sum());
+        }
+        for (Histogram histogram : Histogram.values()) {
+            putHistogram(snapshot, nameOf(histogram), histograms[histogram.ordinal()]);
+        }
+        for (Map.Entry<String, LatencyHistogram[]> entry : peerHistograms.entrySet()) {
+            for (PeerHistogram histogram : PeerHistogram.values()) {
+                putHistogram(snapshot, "peer_" + entry.getKey() + "_" + nameOf(histogram), entry.getValue()[histogram.ordinal()]);
+            }
+        }
+        for (Map.Entry<String, LongAdder> entry : peerFailures.entrySet()) {
+            snapshot.put("peer_" + entry.getKey() + "_failures", entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return snapshot;
+    }
+
+    private static void putHistogram(Map<String, Number> snapshot, String name, LatencyHistogram histogram) {
+        snapshot.put(name + "_count", histogram.getTotalCount());
+        snapshot.put(name + "_mean", histogram.getMean());
+        for (double percentile : PERCENTILES) {
+            snapshot.put(name + "_" + percentileName(percentile), histogram.getValueAtPercentile(percentile));
+        }
+        snapshot.put(name + "_max", histogram.getMax());
+    }
+
+    /**
+     * Print every metric as a text line, in the exposition format of Prometheus.
+     * Every metric starts with its type, and the lines of a metric are kept together:
+     * a histogram is a summary with its quantiles, sum and count, and its max is a gauge after it.
+     *
+     * @return
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (Counter counter : Counter.values()) {
+            String name = "kvstore_" + nameOf(counter) + "_total";
+            appendType(text, name, "counter");
+            text.append(name).append(' ').append(counters[counter.ordinal()].sum()).append('\n');
+        }
+        for (Histogram histogram : Histogram.values()) {
+            String name = "kvstore_" + nameOf(histogram);
+            LatencyHistogram values = histograms[histogram.ordinal()];
+            appendType(text, name, "summary");
+            appendSummary(text, name, "", values);
+            appendType(text, name + "_max", "gauge");
+            text.append(name).append("_max ").append(values.getMax()).append('\n');
+        }
+        Map<String, LatencyHistogram[]> peers = new TreeMap<>(peerHistograms);
+        if (!peers.isEmpty()) {
+            for (PeerHistogram histogram : PeerHistogram.values()) {
+                String name = "kvstore_peer_" + nameOf(histogram);
+                appendType(text, name, "summary");
+                for (Map.Entry<String, LatencyHistogram[]> entry : peers.entrySet()) {
+                    appendSummary(text, name, peerLabel(entry.getKey()), entry.getValue()[histogram.ordinal()]);
+                }
+                appendType(text, name + "_max", "gauge");
+                for (Map.Entry<String, LatencyHistogram[]> entry : peers.entrySet()) {
+                    text.append(name).append("_max{").append(peerLabel(entry.getKey())).append("} ")
+                            .append(entry.getValue()[histogram.ordinal()].getMax()).append('\n');
+                }
+            }
+        }
+        Map<String, LongAdder> failures = new TreeMap<>(peerFailures);
+        if (!failures.isEmpty()) {
+            appendType(text, "kvstore_peer_failures_total", "counter");
+            for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+                text.append("kvstore_peer_failures_total{").append(peerLabel(entry.getKey())).append("} ")
+                        .append(entry.getValue().sum()).append('\n');
+            }
+        }
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(gauges).entrySet()) {
+            String name = "kvstore_" + entry.getKey();
+            appendType(text, name, "gauge");
+            text.append(name).append(' ').append(entry.getValue().getAsLong()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String peerLabel(String peerID) {
+        return "peer=\"" + peerID + "\"";
+    }
+
+    private static void appendType(StringBuilder text, String name, String type) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSummary(StringBuilder text, String name, String label, LatencyHistogram histogram) {
+        String separator = label.isEmpty() ? "" : ",";
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            text.append(name).append("{quantile=\"").append(QUANTILE_LABELS[i]).append('"')
+                    .append(separator).append(label).append("} ")
+                    .append(histogram.getValueAtPercentile(PERCENTILES[i])).append('\n');
+        }
+        String braces = label.isEmpty() ? "" : "{" + label + "}";
+        text.append(name).append("_sum").append(braces).append(' ').append(histogram.getSum()).append('\n');
+        text.append(name).append("_count").append(braces).append(' ').append(histogram.getTotalCount()).append('\n');
+    }
+
+    /**
+     * Register the MBean of the server on the platform MBean server.
+     *
+     * @param serverID
+     * @throws Exception
+     */
+    public void registerMBean(String serverID) throws Exception {
+        ObjectName name = new ObjectName("kvstore:type=Metrics,server=" + ObjectName.quote(serverID));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    }
+
+    /**
+     * Remove the MBean of the server from the platform MBean server.
+     *
+     * @param serverID
+     * @throws Exception
+     */
+    public void unregisterMBean(String serverID) throws Exception {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                new ObjectName("kvstore:type=Metrics,server=" + ObjectName.quote(serverID)));
+    }
+
+    /**
+     * Serve the text of the metrics at http://localhost:port/metrics.
+     *
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    public HttpServer startTextEndpoint(int port) throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        httpServer.start();
+        return httpServer;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException("No such metric: " + attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> snapshot = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        // Every attribute is read-only, so there is no attribute which can be set.
+        throw new AttributeNotFoundException("The metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "The metrics have no operations.");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        // The peers join at any time, so the attributes are listed from a new snapshot.
+        Map<String, Number> snapshot = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                    entry.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of the key-value store server.",
+                attributes, null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,529 @@
+package server;
+
+import common.Accept;
+import common.Request;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The state of one Paxos group.
+ * Every group owns a part of the key space, and has its own acceptor state
+ * and proposer lock, so writes to different groups do not block each other.
+ */
+public class PaxosGroup {
+    // A proposal number is the time in milliseconds, then a sequence within the millisecond, then the index
+    // of the server which issued it, so two servers never issue the same number, and the time part
+    // only runs ahead of the clock when a group starts more rounds in a millisecond than the sequence holds.
+    private static final int SEQUENCE_BITS = 9;
+    private static final int SERVER_INDEX_BITS = 12;
+    private static final long MAX_SEQUENCE = (1l << SEQUENCE_BITS) - 1;
+
+    /**
+     * A key deleted by a proposal, waiting for its version to be collected.
+     */
+    private static class Tombstone {
+        final String key;
+        final long proposalNum;
+        final long learnedTime;
+
+        Tombstone(String key, long proposalNum, long learnedTime) {
+            this.key = key;
+            this.proposalNum = proposalNum;
+            this.learnedTime = learnedTime;
+        }
+    }
+
+    private final int groupID;
+    private final int serverIndex;
+    private final Clock clock;
+    // Serializes the proposer rounds of this group on the current server.
+    private final ReentrantLock proposerLock;
+
+    private long prevProposalNum;
+    private long lastLearnedProposalNum;
+    private long lastIssuedProposalNum;
+    private long highestLearnedProposalNum;
+    private long highestAcceptedWriteNum;
+    // The time before which each other server has sent every write it committed in the group.
+    private final Map<String, Long> safeTimes;
+    private Request prevAcceptedValue;
+    // The keys accepted but not learned yet, with the proposal number which accepted them.
+    private final Map<String, Long> inFlightKeys;
+    // The keys held by a fast accept, which a classic accept can't take over until they expire.
+    private final Map<String, Long> fastHolds;
+    // The proposal number which last wrote each key, kept after a DELETE until the tombstone is collected,
+    // so the commit notices can be applied more than once and in any order.
+    // Sorted by key, so the snapshots are sent in chunks.
+    private final NavigableMap<String, Long> keyVersions;
+    // The deletes in the order they were learned.
+    private final Deque<Tombstone> tombstones;
+    // The newest proposal of the tombstones collected so far.
+    private long collectedProposalNum;
+    // The newest write accepted for each key, until its commit notice is applied.
+    private final Map<String, Accept> acceptedWrites;
+    // The imports accepted, by segment and proposal, until their commit notice is applied.
+    private final Map<String, Accept> acceptedImports;
+
+    /**
+     * Constructor.
+     *
+     * @param groupID
+     * @param serverID
+     */
+    public PaxosGroup(int groupID, String serverID) {
+        this(groupID, serverID, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param groupID
+     * @param serverID
+     * @param clock
+     */
+    public PaxosGroup(int groupID, String serverID, Clock clock) {
+        this.groupID = groupID;
+        this.serverIndex = serverIndexOf(serverID);
+        this.clock = clock;
+        // Fair, so the queued writes take turns in the order they arrived.
+        this.proposerLock = new ReentrantLock(true);
+        this.inFlightKeys = new HashMap<>();
+        this.fastHolds = new HashMap<>();
+        this.safeTimes = new HashMap<>();
+        this.keyVersions = new TreeMap<>();
+        this.tombstones = new ArrayDeque<>();
+        this.acceptedWrites = new HashMap<>();
+        this.acceptedImports = new LinkedHashMap<>();
+    }
+
+    public int getGroupID() {
+        return groupID;
+    }
+
+    /**
+     * Get the index of the server in the proposal numbers it issues.
+     *
+     * @param serverID
+     * @return
+     */
+    public static int serverIndexOf(String serverID) {
+        return serverID.hashCode() & ((1 << SERVER_INDEX_BITS) - 1);
+    }
+
+    /**
+     * Get the time in milliseconds when the proposal number was issued.
+     *
+     * @param proposalNum
+     * @return
+     */
+    public static long timeOf(long proposalNum) {
+        return proposalNum >>> (SEQUENCE_BITS + SERVER_INDEX_BITS);
+    }
+
+    /**
+     * Get the time and the sequence of the proposal number, without the server index.
+     * It moves with every round a server starts in the group.
+     *
+     * @param proposalNum
+     * @return
+     */
+    public static long roundOf(long proposalNum) {
+        return proposalNum >>> SERVER_INDEX_BITS;
+    }
+
+    private static long sequenceOf(long proposalNum) {
+        return (proposalNum >>> SERVER_INDEX_BITS) & MAX_SEQUENCE;
+    }
+
+    public ReentrantLock getProposerLock() {
+        return proposerLock;
+    }
+
+    public synchronized long getPrevProposalNum() {
+        return prevProposalNum;
+    }
+
+    public synchronized void setPrevProposalNum(long prevProposalNum) {
+        this.prevProposalNum = prevProposalNum;
+    }
+
+    public synchronized long getLastLearnedProposalNum() {
+        return lastLearnedProposalNum;
+    }
+
+    public synchronized void setLastLearnedProposalNum(long lastLearnedProposalNum) {
+        this.lastLearnedProposalNum = lastLearnedProposalNum;
+    }
+
+    public synchronized Request getPrevAcceptedValue() {
+        return prevAcceptedValue;
+    }
+
+    public synchronized void setPrevAcceptedValue(Request prevAcceptedValue) {
+        this.prevAcceptedValue = prevAcceptedValue;
+    }
+
+    public synchronized long getHighestLearnedProposalNum() {
+        return highestLearnedProposalNum;
+    }
+
+    /**
+     * Get the newest proposal learned in the group, or of a write accepted in it, which may have been
+     * acknowledged by its proposer before anyone else learned it.
+     *
+     * @return
+     */
+    public synchronized long getHighestKnownProposalNum() {
+        return Math.max(highestLearnedProposalNum, highestAcceptedWriteNum);
+    }
+
+    /**
+     * Get the time before which every write committed in the group by the given servers has been learned,
+     * the oldest of their safe times. A server which hasn't sent one yet has the safe time 0.
+     *
+     * @param serverIDs
+     * @return
+     */
+    public synchronized long getSafeTime(Collection<String> serverIDs) {
+        long res = clock.currentTimeMillis();
+        for (String serverID : serverIDs) {
+            res = Math.min(res, safeTimes.getOrDefault(serverID, 0l));
+        }
+        return res;
+    }
+
+    /**
+     * Record the safe time sent by a server, unless a later one was recorded.
+     *
+     * @param serverID
+     * @param safeTime
+     */
+    public synchronized void recordSafeTime(String serverID, long safeTime) {
+        safeTimes.merge(serverID, safeTime, Math::max);
+    }
+
+    /**
+     * Record a learned proposal.
+     *
+     * @param proposalNum
+     */
+    public synchronized void recordLearned(long proposalNum) {
+        lastLearnedProposalNum = proposalNum;
+        highestLearnedProposalNum = Math.max(highestLearnedProposalNum, proposalNum);
+    }
+
+    /**
+     * Wait until the key has been written by the proposal or a newer one, or the timeout is reached.
+     * The versions of other keys say nothing about this one, since the notices arrive in any order.
+     * A key without a version may have been deleted and collected by a newer proposal.
+     * The wait is on the wall clock, since another thread has to learn the proposal.
+     *
+     * @param key
+     * @param proposalNum
+     * @param timeoutMillis
+     * @return
+     */
+    public synchronized boolean awaitKeyVersion(String key, long proposalNum, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getKeyVersion(key) < proposalNum
+                && (keyVersions.containsKey(key) || collectedProposalNum < proposalNum)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set a unique proposal number based on the time, followed by a sequence and the index of the server.
+     * Two rounds started within the same millisecond get increasing sequences.
+     *
+     * @return
+     */
+    public synchronized long nextProposalNum() {
+        long time = clock.currentTimeMillis();
+        long sequence = 0l;
+        if (time <= timeOf(lastIssuedProposalNum)) {
+            time = timeOf(lastIssuedProposalNum);
+            sequence = sequenceOf(lastIssuedProposalNum) + 1;
+            if (sequence > MAX_SEQUENCE) {
+                time++;
+                sequence = 0l;
+            }
+        }
+        long proposalNum = (time << (SEQUENCE_BITS + SERVER_INDEX_BITS)) | (sequence << SERVER_INDEX_BITS) | serverIndex;
+        lastIssuedProposalNum = proposalNum;
+        return proposalNum;
+    }
+
+    /**
+     * Issue the next proposal numbers above the given one, e.g. the newest version of a key an acceptor has,
+     * so a write is not dropped behind a version written by a server whose clock is ahead.
+     *
+     * @param proposalNum
+     */
+    public synchronized void observeProposalNum(long proposalNum) {
+        lastIssuedProposalNum = Math.max(lastIssuedProposalNum, proposalNum);
+    }
+
+    /**
+     * Hold the key for a fast accept of the proposal, unless another proposal already holds it.
+     * A proposal older than the timeout is treated as abandoned.
+     * Proposal numbers are based on the time, so the age is derived from the number.
+     *
+     * @param key
+     * @param proposalNum
+     * @param timeoutMillis
+     * @return
+     */
+    public synchronized boolean tryMarkInFlight(String key, long proposalNum, long timeoutMillis) {
+        if (isHeldByOther(inFlightKeys, key, proposalNum, timeoutMillis)
+                || isHeldByOther(fastHolds, key, proposalNum, timeoutMillis)) {
+            return false;
+        }
+        fastHolds.put(key, proposalNum);
+        return true;
+    }
+
+    /**
+     * Mark the key as in flight for a classic accept of the proposal, replacing any other classic proposal.
+     * A key held by another fast accept is not taken over until the hold expires,
+     * otherwise the fast and the classic quorums could choose different values.
+     *
+     * @param key
+     * @param proposalNum
+     * @param timeoutMillis
+     * @return
+     */
+    public synchronized boolean markInFlight(String key, long proposalNum, long timeoutMillis) {
+        if (isHeldByOther(fastHolds, key, proposalNum, timeoutMillis)) {
+            return false;
+        }
+        inFlightKeys.put(key, proposalNum);
+        return true;
+    }
+
+    private boolean isHeldByOther(Map<String, Long> holds, String key, long proposalNum, long timeoutMillis) {
+        Long holder = holds.get(key);
+        return holder != null && holder != proposalNum
+                && clock.currentTimeMillis() - timeOf(holder) < timeoutMillis;
+    }
+
+    /**
+     * Clear the key if it's still held by the proposal.
+     *
+     * @param key
+     * @param proposalNum
+     */
+    public synchronized void clearInFlight(String key, long proposalNum) {
+        Long holder = inFlightKeys.get(key);
+        if (holder != null && holder == proposalNum) {
+            inFlightKeys.remove(key);
+        }
+        Long fastHolder = fastHolds.get(key);
+        if (fastHolder != null && fastHolder == proposalNum) {
+            fastHolds.remove(key);
+        }
+    }
+
+    /**
+     * Get the proposal number which last wrote the key, or 0 if it was never written.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized long getKeyVersion(String key) {
+        return keyVersions.getOrDefault(key, 0l);
+    }
+
+    /**
+     * Get the versions of the keys after the key, in the order of the keys.
+     *
+     * @param afterKey the key to start after, or null to start from the first key
+     * @param limit
+     * @return
+     */
+    public synchronized Map<String, Long> getKeyVersionsAfter(String afterKey, int limit) {
+        Map<String, Long> versions = new LinkedHashMap<>();
+        NavigableMap<String, Long> tail = afterKey == null ? keyVersions : keyVersions.tailMap(afterKey, false);
+        for (Map.Entry<String, Long> entry : tail.entrySet()) {
+            if (versions.size() >= limit) {
+                break;
+            }
+            versions.put(entry.getKey(), entry.getValue());
+        }
+        return versions;
+    }
+
+    /**
+     * Remember the key was deleted by the proposal, to collect its version later.
+     *
+     * @param key
+     * @param proposalNum
+     */
+    public synchronized void recordTombstone(String key, long proposalNum) {
+        tombstones.add(new Tombstone(key, proposalNum, clock.currentTimeMillis()));
+    }
+
+    /**
+     * Drop the versions of the keys deleted before the time and not written since.
+     *
+     * @param beforeMillis
+     * @return the number of versions dropped
+     */
+    public synchronized int collectTombstones(long beforeMillis) {
+        int collected = 0;
+        while (!tombstones.isEmpty() && tombstones.peekFirst().learnedTime < beforeMillis) {
+            Tombstone tombstone = tombstones.pollFirst();
+            Long version = keyVersions.get(tombstone.key);
+            if (version != null && version == tombstone.proposalNum) {
+                keyVersions.remove(tombstone.key);
+                collectedProposalNum = Math.max(collectedProposalNum, tombstone.proposalNum);
+                collected++;
+            }
+        }
+        return collected;
+    }
+
+    public synchronized int getTombstoneCount() {
+        return tombstones.size();
+    }
+
+    /**
+     * Record the write of the key by the proposal, unless a newer one has already written it.
+     *
+     * @param key
+     * @param proposalNum
+     * @return whether the write is newer than the current version
+     */
+    public synchronized boolean advanceKeyVersion(String key, long proposalNum) {
+        if (proposalNum <= getKeyVersion(key)) {
+            return false;
+        }
+        keyVersions.put(key, proposalNum);
+        Accept accepted = acceptedWrites.get(key);
+        if (accepted != null && accepted.getProposalNum() <= proposalNum) {
+            acceptedWrites.remove(key);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Keep the accepted write until it's applied, unless a newer one was accepted for the key.
+     *
+     * @param accepted
+     */
+    public synchronized void recordAcceptedWrite(Accept accepted) {
+        highestAcceptedWriteNum = Math.max(highestAcceptedWriteNum, accepted.getProposalNum());
+        String key = accepted.getValue().getKey();
+        Accept current = acceptedWrites.get(key);
+        if (accepted.getProposalNum() > getKeyVersion(key)
+                && (current == null || current.getProposalNum() < accepted.getProposalNum())) {
+            acceptedWrites.put(key, accepted);
+        }
+    }
+
+    /**
+     * Drop the accepted write of the key if it's still the one of the proposal.
+     *
+     * @param key
+     * @param proposalNum
+     */
+    public synchronized void clearAcceptedWrite(String key, long proposalNum) {
+        Accept accepted = acceptedWrites.get(key);
+        if (accepted != null && accepted.getProposalNum() == proposalNum) {
+            acceptedWrites.remove(key);
+        }
+    }
+
+    /**
+     * Get the writes accepted and not applied yet, which were proposed before the time.
+     *
+     * @param timeMillis
+     * @return
+     */
+    public synchronized List<Accept> getAcceptedWritesBefore(long timeMillis) {
+        List<Accept> writes = new ArrayList<>();
+        for (Accept accepted : acceptedWrites.values()) {
+            if (timeOf(accepted.getProposalNum()) < timeMillis) {
+                writes.add(accepted);
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Get the newest write accepted for the key and not applied yet, or null.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized Accept getAcceptedWrite(String key) {
+        return acceptedWrites.get(key);
+    }
+
+    private static String importKeyOf(Accept accepted) {
+        return accepted.getValue().getKey() + "/" + accepted.getProposalNum();
+    }
+
+    /**
+     * Keep the accepted import until its commit notice is applied.
+     *
+     * @param accepted
+     */
+    public synchronized void recordAcceptedImport(Accept accepted) {
+        acceptedImports.put(importKeyOf(accepted), accepted);
+    }
+
+    /**
+     * Drop the accepted import once it's learned, or once a read barrier found it wasn't chosen.
+     *
+     * @param accepted
+     */
+    public synchronized void clearAcceptedImport(Accept accepted) {
+        acceptedImports.remove(importKeyOf(accepted));
+    }
+
+    /**
+     * Get the imports accepted and not learned yet.
+     *
+     * @return
+     */
+    public synchronized List<Accept> getAcceptedImports() {
+        return new ArrayList<>(acceptedImports.values());
+    }
+
+    /**
+     * Get the imports accepted and not learned yet, which were proposed before the time.
+     *
+     * @param timeMillis
+     * @return
+     */
+    public synchronized List<Accept> getAcceptedImportsBefore(long timeMillis) {
+        List<Accept> imports = new ArrayList<>();
+        for (Accept accepted : acceptedImports.values()) {
+            if (timeOf(accepted.getProposalNum()) < timeMillis) {
+                imports.add(accepted);
+            }
+        }
+        return imports;
+    }
+}
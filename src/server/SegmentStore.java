@@ -0,0 +1,162 @@
+package server;
+
+import common.Segment;
+import common.ServerInterface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The segments of the bulk imports on the disk of the current server.
+ * A segment is received in chunks into a partial file, and is only sealed under its ID
+ * once its checksum matches the ID, so a sealed segment can be served to the other servers as it is.
+ */
+public class SegmentStore {
+    private static final String PARTIAL_EXTENSION = ".part";
+
+    private final Path directory;
+
+    /**
+     * Constructor.
+     *
+     * @param directory
+     */
+    public SegmentStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public Path pathOf(String segmentID) {
+        return directory.resolve(checkID(segmentID) + Segment.EXTENSION);
+    }
+
+    public boolean contains(String segmentID) {
+        return Files.exists(pathOf(segmentID));
+    }
+
+    private static String checkID(String segmentID) {
+        if (!Segment.isValidID(segmentID)) {
+            throw new IllegalArgumentException("Not a segment ID: " + segmentID);
+        }
+        return segmentID;
+    }
+
+    /**
+     * Write a chunk of the segment at the offset of the partial file.
+     * The first chunk starts the file over, in case an earlier transfer was left behind.
+     *
+     * @param segmentID
+     * @param offset
+     * @param chunk
+     * @throws IOException
+     */
+    public synchronized void writeChunk(String segmentID, long offset, byte[] chunk) throws IOException {
+        Path partial = directory.resolve(checkID(segmentID) + PARTIAL_EXTENSION);
+        Files.createDirectories(directory);
+        try (FileChannel channel = offset == 0l
+                ? FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Seal the partial file of the segment, if its checksum matches the ID.
+     *
+     * @param segmentID
+     * @return the sealed segment
+     * @throws IOException
+     */
+    public synchronized Path seal(String segmentID) throws IOException {
+        Path segment = pathOf(segmentID);
+        if (Files.exists(segment)) {
+            return segment;
+        }
+        Path partial = directory.resolve(segmentID + PARTIAL_EXTENSION);
+        if (!Files.exists(partial)) {
+            throw new NoSuchFileException("The segment was not received: " + segmentID);
+        }
+        String checksum = Segment.checksum(partial);
+        if (!checksum.equals(segmentID)) {
+            Files.delete(partial);
+            throw new IOException("The checksum of the segment doesn't match: " + segmentID + " != " + checksum);
+        }
+        Files.move(partial, segment, StandardCopyOption.ATOMIC_MOVE);
+        return segment;
+    }
+
+    /**
+     * Read a chunk of a sealed segment.
+     *
+     * @param segmentID
+     * @param offset
+     * @param length
+     * @return the bytes read, empty after the end of the segment
+     * @throws IOException
+     */
+    public byte[] readChunk(String segmentID, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(segmentID), StandardOpenOption.READ)) {
+            long remaining = Math.max(0l, channel.size() - offset);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(remaining, Math.min(length, Segment.CHUNK_SIZE)));
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Stream a sealed segment to another server in chunks, then seal it there.
+     *
+     * @param segmentID
+     * @param target
+     * @throws IOException
+     */
+    public void push(String segmentID, ServerInterface target) throws IOException {
+        long offset = 0l;
+        while (true) {
+            byte[] chunk = readChunk(segmentID, offset, Segment.CHUNK_SIZE);
+            if (chunk.length == 0) {
+                break;
+            }
+            target.writeSegmentChunk(segmentID, offset, chunk);
+            offset += chunk.length;
+        }
+        target.sealSegment(segmentID);
+    }
+
+    /**
+     * Stream the segment from another server in chunks, then seal it.
+     *
+     * @param segmentID
+     * @param source
+     * @return the sealed segment
+     * @throws IOException
+     */
+    public Path fetch(String segmentID, ServerInterface source) throws IOException {
+        long offset = 0l;
+        while (true) {
+            byte[] chunk = source.fetchSegment(segmentID, offset, Segment.CHUNK_SIZE);
+            if (chunk.length == 0) {
+                break;
+            }
+            writeChunk(segmentID, offset, chunk);
+            offset += chunk.length;
+        }
+        return seal(segmentID);
+    }
+}
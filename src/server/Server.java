@@ -2,20 +2,35 @@ package server;
 
 import common.*;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.*;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
 /**
@@ -28,15 +43,55 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
     private String serverID;
     private final Registry registry;
     private final int port;
+    private final Clock clock;
 
-    private long prevProposalNum;
-    private long lastLearnedProposalNum;
-    private Request prevAcceptedValue;
+    // The key space is hash-partitioned into independent Paxos groups, the same number on every server.
+    private final int paxosGroupNum = Integer.getInteger("paxos.groups", 8);
+    private final PaxosGroup[] groups;
+    // The routing table, rebuilt when a server is registered instead of on every request.
+    private volatile ShardRouter router;
 
-    // Used to configure the acceptors to fail at random times.
-    private final long randomAcceptorFailureNum = 10l;
+    // Used to configure the acceptors to fail at random times, 1 of this many proposals fails, 0 never.
+    private final long randomAcceptorFailureNum = Long.getLong("paxos.acceptorFailureNum", 10l);
     // Used to limit the Paxos retry.
     private final int maxPaxosRetry = 3;
+    // Used to enable the leaderless fast path for writes which don't conflict.
+    private final boolean fastPathEnabled = Boolean.getBoolean("paxos.fastPath");
+    // An in-flight write older than this is treated as abandoned by the fast path.
+    private final long fastPathConflictTimeout = 5000l;
+    // Used to limit how long a read-your-writes GET waits for the write to be learned.
+    private final long readWaitTimeout = 1000l;
+    // Used to bound the writes queued on the server and shed the ones which can't meet their deadline.
+    private final AdmissionController admission = new AdmissionController(
+            Integer.getInteger("paxos.queueDepth", 64), Long.getLong("paxos.admissionTimeout", 3000l));
+    // Samples 1 of 16 requests to find the hot keys of the last minute.
+    private final HotKeyTracker hotKeyTracker = new HotKeyTracker(16, 60000l, 6, 64);
+    // Counters and latency histograms of the requests and the Paxos phases.
+    private final Metrics metrics = new Metrics();
+    // Used to send the commit notices in the background, 0 leaves the flushes to the caller.
+    private final long commitNoticeInterval = Long.getLong("paxos.commitNoticeInterval", 20l);
+    // Every server gets the safe time of the current server at least this often, even without notices.
+    private final long heartbeatInterval = Long.getLong("paxos.heartbeatInterval", 100l);
+    // A server further behind than this many notices gets a snapshot instead.
+    private final int commitBacklog = Integer.getInteger("paxos.commitBacklog", 100000);
+    // The number of keys in each chunk of a snapshot.
+    private final int snapshotChunkSize = Integer.getInteger("paxos.snapshotChunk", 1000);
+    // The version of a deleted key is dropped this long after the delete was learned.
+    // A notice or a server delayed longer than this can bring the deleted value back.
+    private final long tombstoneGrace = Long.getLong("paxos.tombstoneGrace", 600000l);
+    private final CommitNotifier commitNotifier;
+    // The segments of the bulk imports, under -Dsegment.dir or the temporary directory.
+    private final SegmentStore segmentStore;
+    // The imports learned but not installed yet, by the ID of the segment, the group and the proposal,
+    // in the order they were learned.
+    private final Map<String, Accept> pendingImports = new LinkedHashMap<>();
+    private final Set<String> installedImports = new HashSet<>();
+    private final Object installLock = new Object();
+    // A write accepted this long ago and still not learned may have lost its proposer, and is recovered.
+    private final long recoveryTimeout = Long.getLong("paxos.recoveryTimeout", 1000l);
+    // Installs the imports in the background and retries the ones which failed every second,
+    // and recovers the writes whose proposer may have failed.
+    private final ScheduledExecutorService maintenance;
 
     /**
      * Constructor.
@@ -47,11 +102,73 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
      * @throws RemoteException
      */
     public Server(String serverID, Registry registry, int port) throws RemoteException {
+        this(serverID, registry, port, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor with the clock of the Paxos rounds, used by the simulator.
+     *
+     * @param serverID
+     * @param registry
+     * @param port
+     * @param clock
+     * @throws RemoteException
+     */
+    public Server(String serverID, Registry registry, int port, Clock clock) throws RemoteException {
         super();
         this.keyValueStore = new ConcurrentHashMap<>();
         this.serverID = serverID;
         this.registry = registry;
         this.port = port;
+        this.clock = clock;
+        if (paxosGroupNum <= 0) {
+            throw new IllegalArgumentException("The number of Paxos groups should be positive.");
+        }
+        this.groups = new PaxosGroup[paxosGroupNum];
+        for (int i = 0; i < paxosGroupNum; i++) {
+            groups[i] = new PaxosGroup(i, serverID, clock);
+        }
+        this.router = buildRouter();
+        this.commitNotifier = new CommitNotifier(serverID, registry, metrics, clock, commitBacklog,
+                commitNoticeInterval, heartbeatInterval, paxosGroupNum, snapshotChunkSize, this::getSnapshot);
+        this.segmentStore = new SegmentStore(Paths.get(System.getProperty("segment.dir",
+                System.getProperty("java.io.tmpdir") + File.separator + "kvstore-segments"), serverID));
+        // Without background sends, the caller installs the imports and recovers the writes too.
+        if (commitNoticeInterval > 0) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "maintenance-" + serverID);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::installImports, 1000l, 1000l, TimeUnit.MILLISECONDS);
+            executor.scheduleWithFixedDelay(this::recoverAcceptedWrites, recoveryTimeout, recoveryTimeout, TimeUnit.MILLISECONDS);
+            executor.scheduleWithFixedDelay(this::collectTombstones, 60000l, 60000l, TimeUnit.MILLISECONDS);
+            this.maintenance = executor;
+        } else {
+            this.maintenance = null;
+        }
+        metrics.registerGauge("store_size", () -> keyValueStore.size());
+        metrics.registerGauge("admission_queued", () -> admission.getQueued());
+        metrics.registerGauge("commit_backlog", () -> commitNotifier.getBacklog());
+        metrics.registerGauge("tombstones", () -> {
+            int tombstones = 0;
+            for (PaxosGroup group : groups) {
+                tombstones += group.getTombstoneCount();
+            }
+            return tombstones;
+        });
+        // The log events dropped because the buffer of the log writer was full, in the whole JVM.
+        metrics.registerGauge("log_dropped", () -> AsyncLogWriter.getInstance().getDropped());
+        metrics.registerGauge("pending_imports", () -> {
+            synchronized (pendingImports) {
+                return pendingImports.size();
+            }
+        });
+        try {
+            metrics.registerMBean(serverID);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Could not register the metrics MBean: {}", e);
+        }
     }
 
     /**
@@ -66,7 +183,7 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
             InetAddress host = InetAddress.getLocalHost();
             id = host.getHostAddress() + "_" + port;
         } catch (UnknownHostException e) {
-            logger.log(Level.SEVERE, "Unknown Host Exception: " + e);
+            logger.log(Level.SEVERE, "Unknown Host Exception: {}", e);
         }
         return id;
     }
@@ -83,7 +200,14 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
             Server currServer = new Server(currServerID, registry, port);
             // Bind the remote object by the name "Server".
             registry.rebind("Server", currServer);
-            logger.log(Level.INFO, "Server started at port: " + port);
+            logger.log(Level.INFO, "Server started at port: {}", port);
+
+            // Serve the metrics as text to a local scraper.
+            int metricsPort = Integer.getInteger("metrics.port", 0);
+            if (metricsPort > 0) {
+                currServer.getMetrics().startTextEndpoint(metricsPort);
+                logger.log(Level.INFO, "Metrics served at http://localhost:{}/metrics", metricsPort);
+            }
 
             // Prepare the nodes needed on the config.properties file.
             // InputStream input = new FileInputStream("resources/config.properties");
@@ -93,6 +217,8 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
 //            String[] discoveryNodes = prop.getProperty("discovery.nodes").split(",");
 
             boolean discoverySucceed = false;
+            // The server the current server catches up with once it's registered with the cluster.
+            ServerInterface catchUpServer = null;
             logger.log(Level.INFO, "Server is trying to connect to a cluster.");
 
             for (String discoveryNode : discoveryNodes) {
@@ -109,12 +235,21 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
                             ServerInterface discoveryRegistryServer = (ServerInterface) discoveryRegistry.lookup(serverID);
                             // Register the node with the proxy server.
                             if (!currServerID.equals(discoveryRegistryServer.getServerID())) {
+                                int clusterGroupNum = discoveryRegistryServer.getRouter().getGroupNum();
+                                if (clusterGroupNum != currServer.paxosGroupNum) {
+                                    logger.log(Level.SEVERE, "The cluster has {} Paxos groups, start the server with -Dpaxos.groups={}",
+                                            clusterGroupNum, clusterGroupNum);
+                                    System.exit(1);
+                                }
                                 discoverySucceed = true;
-                                currServer.setStorage(discoveryRegistryServer.getStorage());
                                 discoveryRegistryServer.registerNewServer(currServerID, currServer);
-                                logger.log(Level.INFO, "Registered current server with server: " + discoveryRegistryServer.getServerID());
+                                if (catchUpServer == null) {
+                                    catchUpServer = discoveryRegistryServer;
+                                }
+                                logger.log(Level.INFO, "Registered current server with server: {}", discoveryRegistryServer.getServerID());
                                 registry.bind(discoveryRegistryServer.getServerID(), discoveryRegistryServer);
-                                logger.log(Level.INFO, "Registered the server with the current server: " + discoveryRegistryServer.getServerID());
+                                currServer.router = currServer.buildRouter();
+                                logger.log(Level.INFO, "Registered the server with the current server: {}", discoveryRegistryServer.getServerID());
                             }
                         } catch (ConnectException e) {
                             continue;
@@ -131,9 +266,11 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
                 logger.log(Level.INFO, "Could not connect to any clusters, acting as a standalone cluster.");
             } else {
                 logger.log(Level.INFO, "Connected to a cluster.");
+                // The servers send the notices to the current server from now on, and the snapshot covers the ones before.
+                currServer.catchUp(catchUpServer);
             }
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "Server error: " + e);
+            logger.log(Level.SEVERE, "Server error: {}", e);
             System.exit(0);
         }
     }
@@ -146,8 +283,21 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
      * @throws RemoteException
      */
     public void registerNewServer(String currServerID, ServerInterface server) throws RemoteException {
+        // The servers must agree on the groups, otherwise they route the same key to different groups.
+        int serverGroupNum = server.getRouter().getGroupNum();
+        if (serverGroupNum != paxosGroupNum) {
+            throw new RemoteException("The server has " + serverGroupNum + " Paxos groups, but the cluster has " + paxosGroupNum + ".");
+        }
+        // The servers must issue different proposal numbers, otherwise two values can be chosen for one number.
+        for (String clusterServerID : router.getServerIDs()) {
+            if (!clusterServerID.equals(currServerID)
+                    && PaxosGroup.serverIndexOf(clusterServerID) == PaxosGroup.serverIndexOf(currServerID)) {
+                throw new RemoteException("The server ID " + currServerID + " issues the same proposal numbers as " + clusterServerID + ", choose another one.");
+            }
+        }
         registry.rebind(currServerID, server);
-        logger.log(Level.INFO, "Registered a new server: " + currServerID);
+        router = buildRouter();
+        logger.log(Level.INFO, "Registered a new server: {}", currServerID);
     }
 
     /**
@@ -188,49 +338,261 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
         this.keyValueStore = storage;
     }
 
+    /**
+     * Getter of the routing table based on the servers known by the current server.
+     *
+     * @return
+     * @throws RemoteException
+     */
+    public ShardRouter getRouter() throws RemoteException {
+        return router;
+    }
+
+    /**
+     * Build the routing table from the servers bound in the registry.
+     *
+     * @return
+     * @throws RemoteException
+     */
+    private ShardRouter buildRouter() throws RemoteException {
+        List<String> serverIDs = new ArrayList<>();
+        serverIDs.add(serverID);
+        for (String name : registry.list()) {
+            // The current server is bound by the name "Server".
+            if (!name.equals("Server") && !name.equals(serverID)) {
+                serverIDs.add(name);
+            }
+        }
+        return new ShardRouter(paxosGroupNum, serverIDs);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the metrics as text lines.
+     *
+     * @return
+     * @throws RemoteException
+     */
+    public String getMetricsText() throws RemoteException {
+        return metrics.toText();
+    }
+
+    /**
+     * Get the current top K keys by reads or writes on the current server.
+     *
+     * @param type
+     * @param k
+     * @return
+     * @throws RemoteException
+     */
+    public List<HotKey> getHotKeys(HotKey.Type type, int k) throws RemoteException {
+        return hotKeyTracker.getHotKeys(type, k);
+    }
+
     /**
      * GET operation.
+     * The current server serves the read locally when it meets the consistency level,
+     * otherwise the read is redirected to the leader of the group.
      *
      * @param request
      * @return
      * @throws RemoteException
      */
-    public synchronized Response get(Request request) throws RemoteException {
-        logger.log(Level.INFO, "Received a new request: " + request.toString());
+    public Response get(Request request) throws RemoteException {
+        long startTime = System.nanoTime();
+        metrics.increment(Metrics.Counter.GET_REQUESTS);
+        try {
+            return getConsistent(request);
+        } finally {
+            metrics.recordSince(Metrics.Histogram.GET_LATENCY_MICROS, startTime);
+        }
+    }
+
+    /**
+     * GET operation at the consistency level of the request.
+     *
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    private Response getConsistent(Request request) throws RemoteException {
+        logger.log(Level.INFO, "Received a new request: {}", request);
         String key = request.getKey();
+        hotKeyTracker.record(HotKey.Type.READ, key);
+        PaxosGroup group = groups[router.groupFor(key)];
         Response response = null;
+
+        Request.Consistency consistency = request.getConsistency();
+        if (consistency == Request.Consistency.LINEARIZABLE) {
+            response = forwardToLeader(request);
+            if (response != null) {
+                return response;
+            }
+            response = readBarrier(group, request);
+            if (response != null) {
+                return response;
+            }
+        } else if (consistency == Request.Consistency.BOUNDED_STALENESS) {
+            // A write commits outside the leader on the fast path, when the leader can't be reached, or when it's
+            // recovered, so even the leader only has the writes up to the oldest safe time the others sent it.
+            // The clocks of the servers are assumed to be loosely synchronized.
+            List<String> peerIDs = new ArrayList<>(router.getServerIDs());
+            peerIDs.remove(serverID);
+            if (clock.currentTimeMillis() - group.getSafeTime(peerIDs) > request.getMaxStalenessMillis()) {
+                logger.log(Level.INFO, "The server is staler than the bound, redirecting the read.");
+                response = forwardToLeader(request);
+                if (response != null) {
+                    return response;
+                }
+                // The leader is staler than the bound as well, or can't be reached.
+                response = readBarrier(group, request);
+                if (response != null) {
+                    return response;
+                }
+            }
+        } else if (consistency == Request.Consistency.READ_YOUR_WRITES) {
+            if (!group.awaitKeyVersion(key, request.getSessionToken(), readWaitTimeout)) {
+                logger.log(Level.INFO, "The server hasn't learned the write of the session, redirecting the read.");
+                response = forwardToLeader(request);
+                if (response != null) {
+                    return response;
+                }
+            }
+        }
+
         if (!keyValueStore.containsKey(key)) {
             response = new Response("400", Response.Status.FAILED, "");
-            logger.log(Level.INFO, "The key does not exist: " + key);
+            logger.log(Level.INFO, "The key does not exist: {}", key);
         } else {
             String value = keyValueStore.get(key);
             response = new Response("200", Response.Status.SUCCEED, value);
-            logger.log(Level.INFO, "The value has been found: " + value);
+            logger.log(Level.INFO, "The value has been found: {}", value);
         }
+        // The version of the key the read has seen, so a later read of the session doesn't go back.
+        response.setSessionToken(group.getKeyVersion(key));
         return response;
     }
 
+    /**
+     * Commit the read as a barrier, so every write of the group before it has been learned.
+     * Returns the failure to answer with, or null if the read can be served locally.
+     *
+     * @param group
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    private Response readBarrier(PaxosGroup group, Request request) throws RemoteException {
+        try {
+            invokeProposer(request);
+        } catch (TimeoutException e) {
+            logger.log(Level.SEVERE, "Time out: {}", e);
+            return new Response("500", Response.Status.FAILED, "");
+        } catch (RejectedExecutionException e) {
+            metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+            logger.log(Level.INFO, "Overloaded: {}", e);
+            return new Response("503", Response.Status.OVERLOADED, "");
+        }
+        // An import is acknowledged once it's learned, so the key may be in one which isn't installed yet.
+        if (!installImports(group)) {
+            logger.log(Level.SEVERE, "Could not install the imports before reading the key: {}", request.getKey());
+            return new Response("500", Response.Status.FAILED, "");
+        }
+        return null;
+    }
+
+    /**
+     * Get the client which sent the request, used for the fair queuing.
+     * A request without one is from the host calling the current server, and keeps it when it's forwarded.
+     *
+     * @param request
+     * @return
+     */
+    private String getClientID(Request request) {
+        if (request.getClientID() == null) {
+            try {
+                request.setClientID(getClientHost());
+            } catch (ServerNotActiveException e) {
+                // Not called through RMI.
+                request.setClientID(serverID);
+            }
+        }
+        return request.getClientID();
+    }
+
     /**
      * PUT operation.
      *
      * @param request
      * @throws RemoteException
      */
-    public synchronized Response put(Request request) throws RemoteException {
-        logger.log(Level.INFO, "Received a new request: " + request.toString());
-        String key = request.getKey();
+    public Response put(Request request) throws RemoteException {
+        logger.log(Level.INFO, "Received a new request: {}", request);
+        long startTime = System.nanoTime();
+        metrics.increment(Metrics.Counter.PUT_REQUESTS);
+        hotKeyTracker.record(HotKey.Type.WRITE, request.getKey());
+        String clientID = getClientID(request);
+        if (!admission.tryAdmit(clientID)) {
+            metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+            logger.log(Level.INFO, "The write queue is full, shedding the request.");
+            return new Response("503", Response.Status.OVERLOADED, request.getValue());
+        }
+        try {
+            return putAdmitted(request, admission.newDeadline());
+        } finally {
+            admission.release(clientID);
+            metrics.recordSince(Metrics.Histogram.PUT_LATENCY_MICROS, startTime);
+        }
+    }
+
+    /**
+     * PUT operation after the admission.
+     *
+     * @param request
+     * @param deadline
+     * @return
+     * @throws RemoteException
+     */
+    private Response putAdmitted(Request request, long deadline) throws RemoteException {
         String value = request.getValue();
+
+        // Writes which don't conflict commit in one round trip from any server.
         Response response = null;
+        long proposalNum = fastPathEnabled ? invokeFastPath(request) : 0l;
+        if (proposalNum != 0l) {
+            logger.log(Level.INFO, "The pair of key and value has been stored on the fast path.");
+            response = new Response("200", Response.Status.SUCCEED, value);
+            response.setSessionToken(proposalNum);
+            return response;
+        }
+
+        response = forwardToLeader(request);
+        if (response != null) {
+            return response;
+        }
 
         // At first, invoke the proposer.
         logger.log(Level.INFO, "Invoking the Proposer.");
         try {
-            invokeProposer(request);
+            proposalNum = invokeProposer(request, deadline);
             response = new Response("200", Response.Status.SUCCEED, value);
+            response.setSessionToken(proposalNum);
             logger.log(Level.INFO, "The pair of key and value has been stored.");
         } catch (TimeoutException e) {
             response = new Response("500", Response.Status.FAILED, value);
-            logger.log(Level.SEVERE, "Time out: " + e);
+            logger.log(Level.SEVERE, "Time out: {}", e);
+        } catch (RejectedExecutionException e) {
+            metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+            response = new Response("503", Response.Status.OVERLOADED, value);
+            logger.log(Level.INFO, "Overloaded: {}", e);
         }
         return response;
     }
@@ -242,86 +604,343 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
      * @return
      * @throws RemoteException
      */
-    public synchronized Response delete(Request request) throws RemoteException {
-        logger.log(Level.INFO, "Received a new request: " + request.toString());
+    public Response delete(Request request) throws RemoteException {
+        logger.log(Level.INFO, "Received a new request: {}", request);
+        long startTime = System.nanoTime();
+        metrics.increment(Metrics.Counter.DELETE_REQUESTS);
+        hotKeyTracker.record(HotKey.Type.WRITE, request.getKey());
+        String clientID = getClientID(request);
+        if (!admission.tryAdmit(clientID)) {
+            metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+            logger.log(Level.INFO, "The write queue is full, shedding the request.");
+            return new Response("503", Response.Status.OVERLOADED, "");
+        }
+        try {
+            return deleteAdmitted(request, admission.newDeadline());
+        } finally {
+            admission.release(clientID);
+            metrics.recordSince(Metrics.Histogram.DELETE_LATENCY_MICROS, startTime);
+        }
+    }
+
+    /**
+     * DELETE operation after the admission.
+     *
+     * @param request
+     * @param deadline
+     * @return
+     * @throws RemoteException
+     */
+    private Response deleteAdmitted(Request request, long deadline) throws RemoteException {
         String key = request.getKey();
         Response response = null;
+        if (!keyValueStore.containsKey(key)) {
+            response = new Response("400", Response.Status.FAILED, "");
+            logger.log(Level.INFO, "The key does not exist: {}", key);
+            return response;
+        }
+
+        // Writes which don't conflict commit in one round trip from any server.
+        long proposalNum = fastPathEnabled ? invokeFastPath(request) : 0l;
+        if (proposalNum != 0l) {
+            logger.log(Level.INFO, "The pair of key and value has been deleted on the fast path.");
+            response = new Response("200", Response.Status.SUCCEED, "");
+            response.setSessionToken(proposalNum);
+            return response;
+        }
+
+        response = forwardToLeader(request);
+        if (response != null) {
+            return response;
+        }
 
         // At first, invoke the proposer.
         logger.log(Level.INFO, "Invoking the Proposer.");
-        if (!keyValueStore.containsKey(key)) {
-            response = new Response("400", Response.Status.FAILED, "");
-            logger.log(Level.INFO, "The key does not exist: " + key);
-        } else {
+        try {
+            proposalNum = invokeProposer(request, deadline);
+            response = new Response("200", Response.Status.SUCCEED, "");
+            response.setSessionToken(proposalNum);
+            logger.log(Level.INFO, "The pair of key and value has been deleted.");
+        } catch (TimeoutException e) {
+            response = new Response("500", Response.Status.FAILED, "");
+            logger.log(Level.SEVERE, "Time out: {}", e);
+        } catch (RejectedExecutionException e) {
+            metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+            response = new Response("503", Response.Status.OVERLOADED, "");
+            logger.log(Level.INFO, "Overloaded: {}", e);
+        }
+        return response;
+    }
+
+    /**
+     * Forward the request to the server which leads the group of the key.
+     * Returns null if the current server should propose the request itself,
+     * either because it's the leader or because the leader can't be reached.
+     *
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    private Response forwardToLeader(Request request) throws RemoteException {
+        // Never forward twice, so different views of the cluster can't bounce a request around.
+        if (request.isForwarded()) {
+            return null;
+        }
+        String leaderID = router.leaderForKey(request.getKey());
+        if (leaderID == null || leaderID.equals(serverID)) {
+            return null;
+        }
+
+        logger.log(Level.INFO, "Forwarding the request to the leader of its group: {}", leaderID);
+        metrics.increment(Metrics.Counter.FORWARDED_REQUESTS);
+        request.setForwarded(true);
+        try {
+            ServerInterface leader = (ServerInterface) registry.lookup(leaderID);
+            if (request.getMethod().equals(Request.Method.GET)) {
+                return leader.get(request);
+            } else if (request.getMethod().equals(Request.Method.PUT)) {
+                return leader.put(request);
+            }
+            return leader.delete(request);
+        } catch (ConnectException | ConnectIOException | NoSuchObjectException | NotBoundException e) {
+            // Only a leader which never got the request is bypassed. Any other failure may come after the leader
+            // has proposed the write, so it's passed on to the client rather than proposed a second time.
+            logger.log(Level.INFO, "Could not reach the leader, proposing locally: {}", e);
+            return null;
+        }
+    }
+
+    /**
+     * Leaderless fast path.
+     * The current server sends the value straight to every acceptor, skipping the prepare phase.
+     * An acceptor only accepts it if no other write to the same key is in flight.
+     * If a fast quorum accepts, the value is committed. Otherwise the acceptances are released
+     * and the caller falls back to the classic Paxos rounds.
+     * Returns the committed proposal number, or 0 if the fast path failed.
+     *
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    private long invokeFastPath(Request request) throws RemoteException {
+        // A forwarded request has already failed on the fast path.
+        if (request.isForwarded()) {
+            return 0l;
+        }
+        PaxosGroup group = groups[router.groupFor(request.getKey())];
+        int groupID = group.getGroupID();
+        long proposalNum = group.nextProposalNum();
+        String[] serverIDs = registry.list();
+        // The fast quorum is at least three quarters of the servers.
+        int fastQuorum = serverIDs.length - serverIDs.length / 4;
+        logger.log(Level.INFO, "Trying the fast path with the proposal number: {}", proposalNum);
+
+        List<Accept> accepteds = new ArrayList<>();
+        for (String currServerID : serverIDs) {
             try {
-                invokeProposer(request);
-                response = new Response("200", Response.Status.SUCCEED, "");
-                logger.log(Level.INFO, "The pair of key and value has been deleted.");
-            } catch (TimeoutException e) {
-                response = new Response("500", Response.Status.FAILED, "");
-                logger.log(Level.SEVERE, "Time out: " + e);
+                ServerInterface currServer = (ServerInterface) registry.lookup(currServerID);
+                Accept currAccepted = currServer.fastAccept(groupID, proposalNum, request);
+                currAccepted.setServerID(currServerID);
+                accepteds.add(currAccepted);
+            } catch (NotBoundException | RemoteException e) {
+                logger.log(Level.INFO, "The fast accept was not confirmed by the server: {}", currServerID);
+            }
+        }
+
+        if (accepteds.size() < fastQuorum) {
+            logger.log(Level.INFO, "Didn't receive a fast quorum. Falling back to the classic Paxos.");
+            releaseFastAccepts(groupID, proposalNum, request.getKey(), accepteds);
+            return 0l;
+        }
+
+        // Learn the value and let the commit notices bring it to the other servers.
+        // If the key got a newer version in the meantime, the write would be dropped, so the classic Paxos
+        // proposes it again with a newer number.
+        Accept committed = new Accept();
+        committed.setGroupID(groupID);
+        committed.setProposalNum(proposalNum);
+        committed.setValue(request);
+        if (!applyCommitted(committed)) {
+            logger.log(Level.INFO, "The key has a newer version than the fast accept. Falling back to the classic Paxos.");
+            group.observeProposalNum(group.getKeyVersion(request.getKey()));
+            releaseFastAccepts(groupID, proposalNum, request.getKey(), accepteds);
+            return 0l;
+        }
+        commitNotifier.publish(committed);
+        logger.log(Level.INFO, "The value was committed on the fast path.");
+        metrics.increment(Metrics.Counter.FAST_PATH_COMMITS);
+        return proposalNum;
+    }
+
+    /**
+     * Release the keys held by the fast accepts of the proposal, which falls back to the classic Paxos.
+     *
+     * @param groupID
+     * @param proposalNum
+     * @param key
+     * @param accepteds
+     */
+    private void releaseFastAccepts(int groupID, long proposalNum, String key, List<Accept> accepteds) {
+        metrics.increment(Metrics.Counter.FAST_PATH_FALLBACKS);
+        for (Accept accepted : accepteds) {
+            try {
+                ServerInterface currServer = (ServerInterface) registry.lookup(accepted.getServerID());
+                currServer.releaseFastAccept(groupID, proposalNum, key);
+            } catch (NotBoundException | RemoteException e) {
+                logger.log(Level.INFO, "Could not release the fast accept on the server: {}", accepted.getServerID());
             }
         }
-        return response;
     }
 
     /**
      * PAXOS Processes.
+     * Only one round runs at a time for each group on the current server.
+     * Returns the proposal number which the request was learned with.
      *
      * @param request
+     * @return
      * @throws TimeoutException
      * @throws RemoteException
      */
-    public void invokeProposer(Request request) throws TimeoutException, RemoteException {
+    public long invokeProposer(Request request) throws TimeoutException, RemoteException {
+        return invokeProposer(request, admission.newDeadline());
+    }
+
+    /**
+     * PAXOS Processes with a deadline in System.nanoTime().
+     * The request is rejected if it can't start its round before the deadline.
+     *
+     * @param request
+     * @param deadline
+     * @return
+     * @throws TimeoutException
+     * @throws RemoteException
+     */
+    private long invokeProposer(Request request, long deadline) throws TimeoutException, RemoteException {
+        return invokeProposer(groups[router.groupFor(request.getKey())], request, deadline);
+    }
+
+    /**
+     * PAXOS Processes of the group, with a deadline in System.nanoTime().
+     * An import is proposed through each group its keys belong to, whatever group its own key is in.
+     *
+     * @param group
+     * @param request
+     * @param deadline
+     * @return
+     * @throws TimeoutException
+     * @throws RemoteException
+     */
+    private long invokeProposer(PaxosGroup group, Request request, long deadline) throws TimeoutException, RemoteException {
+        ReentrantLock proposerLock = group.getProposerLock();
+        // Fail fast when the rounds queued before the request would take longer than the deadline.
+        if (!admission.canMeetDeadline(proposerLock.getQueueLength(), deadline)) {
+            throw new RejectedExecutionException("The request can't meet its deadline.");
+        }
+        try {
+            if (!proposerLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("The request has reached its deadline in the queue.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("The request was interrupted in the queue.");
+        }
+        try {
+            long startTime = System.nanoTime();
+            long proposalNum = runPaxos(group, request, deadline);
+            admission.recordCommit(System.nanoTime() - startTime);
+            metrics.recordSince(Metrics.Histogram.PAXOS_ROUND_MICROS, startTime);
+            return proposalNum;
+        } finally {
+            proposerLock.unlock();
+        }
+    }
+
+    /**
+     * Run the Paxos rounds of the group until the request is learned, with a deadline in System.nanoTime().
+     * The request is rejected rather than backing off past the deadline.
+     *
+     * @param group
+     * @param request
+     * @param deadline
+     * @return
+     * @throws TimeoutException
+     * @throws RemoteException
+     */
+    private long runPaxos(PaxosGroup group, Request request, long deadline) throws TimeoutException, RemoteException {
+        int groupID = group.getGroupID();
+        long learnedProposalNum = 0l;
         boolean roundFailed = true;
         int tried = 1;
 
         // Will try Paxos for 3 rounds until succeed.
         while (roundFailed) {
             if (tried > maxPaxosRetry) {
+                metrics.increment(Metrics.Counter.PAXOS_TIMEOUTS);
                 throw new TimeoutException("The maximum retries of Paxos has been reached.");
             }
+            if (tried > 1) {
+                metrics.increment(Metrics.Counter.PAXOS_RETRIES);
+            }
             tried++;
+            metrics.increment(Metrics.Counter.PAXOS_ROUNDS);
 
-            logger.log(Level.INFO, "A new Paxos round starts.");
+            logger.log(Level.INFO, "A new Paxos round starts for the group: {}", groupID);
 
             // Set a unique proposal number based on the time.
-            long proposalNum = System.currentTimeMillis();
-            logger.log(Level.INFO, "The proposer sets a unique proposal number: " + proposalNum);
+            long proposalNum = group.nextProposalNum();
+            logger.log(Level.INFO, "The proposer sets a unique proposal number: {}", proposalNum);
 
             // Keep a list of promises to store the result.
             List<Promise> promises = new ArrayList<>();
             // Phase 1: Prepare-Promise.
+            long phaseStartTime = System.nanoTime();
             for (String serverID : registry.list()) {
-                logger.log(Level.INFO, "Sending a prepare message to the server: " + serverID);
+                logger.log(Level.INFO, "Sending a prepare message to the server: {}", serverID);
+                long callStartTime = System.nanoTime();
                 try {
                     ServerInterface currServer = (ServerInterface) registry.lookup(serverID);
                     // Sending a prepare message to the acceptor.
                     // Receiving a promise message from the acceptor.
-                    Promise currPromise = currServer.prepare(proposalNum);
+                    Promise currPromise = currServer.prepare(groupID, proposalNum);
+                    metrics.recordPeerSince(serverID, Metrics.PeerHistogram.PREPARE_MICROS, callStartTime);
                     logger.log(Level.INFO, "Received a promise.");
                     currPromise.setServerID(serverID);
                     promises.add(currPromise);
                 } catch (NotBoundException e) {
-                    logger.log(Level.SEVERE, "Not Bound Exception: " + e);
+                    logger.log(Level.SEVERE, "Not Bound Exception: {}", e);
+                } catch (RemoteException e) {
+                    // A failed acceptor only counts against the majority.
+                    metrics.recordPeerFailure(serverID);
+                    logger.log(Level.INFO, "The acceptor failed to promise: {}", e);
                 }
             }
+            metrics.recordSince(Metrics.Histogram.PREPARE_PHASE_MICROS, phaseStartTime);
+            metrics.record(Metrics.Histogram.PROMISE_QUORUM_SIZE, promises.size());
 
             // Check whether the proposer received a majority of promises.
             // If the promises amount doesn't reach the majority, do not response.
             if (promises.size() <= registry.list().length / 2) {
                 logger.log(Level.INFO, "Didn't receive a majority of promises. Restarting a new Paxos round.");
-                try {
-                    TimeUnit.SECONDS.sleep(2);
-                } catch (InterruptedException e) {
-                    logger.log(Level.SEVERE, "Interrupted Exception: " + e);
-                }
+                backOff(deadline);
                 continue;
             }
 
             // If yes.
             logger.log(Level.INFO, "Received a majority of promises.");
 
+            // A write numbered below a version the group already has would be dropped, which happens when
+            // the clock of another proposer is ahead. The next round starts past the newest version.
+            long highestKnownProposalNum = 0l;
+            for (Promise promise : promises) {
+                highestKnownProposalNum = Math.max(highestKnownProposalNum, promise.getHighestKnownProposalNum());
+            }
+            group.observeProposalNum(highestKnownProposalNum);
+            if (proposalNum < highestKnownProposalNum) {
+                logger.log(Level.INFO, "The proposal number is behind the group. Restarting a new Paxos round.");
+                continue;
+            }
+
             // Phase 2: Propose-accept.
             long maxProposalNum = 0l;
             Request value = request;
@@ -333,119 +952,310 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
                 }
             }
 
-            logger.log(Level.INFO, "Value for accepted: " + value.toString());
+            logger.log(Level.INFO, "Value for accepted: {}", value);
             List<Accept> accepteds = new ArrayList<>();
 
+            phaseStartTime = System.nanoTime();
             for (Promise promise : promises) {
                 String currServerID = promise.getServerID();
-                logger.log(Level.INFO, "Sending an accept message to the server: " + currServerID);
+                logger.log(Level.INFO, "Sending an accept message to the server: {}", currServerID);
+                long callStartTime = System.nanoTime();
+                // The commit notices queued for the server ride on the accept message.
+                List<Accept> commits = commitNotifier.take(currServerID);
                 try {
                     ServerInterface currServer = (ServerInterface) registry.lookup(currServerID);
-                    Accept currAccepted = currServer.accept(proposalNum, value);
+                    Accept currAccepted = currServer.accept(groupID, proposalNum, value, commits);
+                    metrics.recordPeerSince(currServerID, Metrics.PeerHistogram.ACCEPT_MICROS, callStartTime);
+                    metrics.add(Metrics.Counter.COMMIT_NOTICES_PIGGYBACKED, commits.size());
+                    commitNotifier.confirm(currServerID, commits);
                     logger.log(Level.INFO, "Received an accept.");
                     currAccepted.setServerID(currServerID);
                     accepteds.add(currAccepted);
                 } catch (NotBoundException e) {
-                    logger.log(Level.SEVERE, "Not Bound Exception: " + e);
+                    commitNotifier.restore(currServerID, commits);
+                    logger.log(Level.SEVERE, "Not Bound Exception: {}", e);
+                } catch (RemoteException e) {
+                    commitNotifier.restore(currServerID, commits);
+                    metrics.recordPeerFailure(currServerID);
+                    logger.log(Level.INFO, "The acceptor failed to accept: {}", e);
                 }
             }
+            metrics.recordSince(Metrics.Histogram.ACCEPT_PHASE_MICROS, phaseStartTime);
+            metrics.record(Metrics.Histogram.ACCEPT_QUORUM_SIZE, accepteds.size());
 
             // Check whether the proposer received a majority of accepted.
             // If the accepted messages doesn't reach the majority, do not response.
             if (accepteds.size() <= registry.list().length / 2) {
                 logger.log(Level.INFO, "Didn't receive a majority of accepted. Restarting a new Paxos round.");
-                try {
-                    TimeUnit.SECONDS.sleep(2);
-                } catch (InterruptedException e) {
-                    logger.log(Level.SEVERE, "Interrupted Exception: " + e);
-                    e.printStackTrace();
-                }
+                backOff(deadline);
                 continue;
             }
 
             // If yes.
             logger.log(Level.INFO, "Received a majority of accpeted.");
 
-            // Sending the accpeted message to learners.
-            logger.log(Level.INFO, "Invoking Learners.");
-            for (Accept accepted : accepteds) {
-                String currServerID = accepted.getServerID();
-                logger.log(Level.INFO, "Invoking learner: " + currServerID);
-                try {
-                    ServerInterface currServer = (ServerInterface) registry.lookup(currServerID);
-                    currServer.invokeLearner(accepted);
-                    logger.log(Level.INFO, "Learner was successfully invoked.");
-                } catch (NotBoundException e) {
-                    logger.log(Level.SEVERE, "Not Bound Exception" + e);
+            // The value is chosen once a majority has accepted it, so the proposer learns it and answers
+            // the client without another round. The other servers learn it from the commit notices.
+            phaseStartTime = System.nanoTime();
+            Accept committed = new Accept();
+            committed.setGroupID(groupID);
+            committed.setProposalNum(proposalNum);
+            committed.setValue(value);
+            if (value.getMethod().equals(Request.Method.GET)) {
+                // A read barrier catches up with the writes its quorum knows of, which the notices
+                // may not have brought yet. Every write chosen before was accepted by one of them.
+                // A write it completes is sent to the other servers as if it was proposed here.
+                // The imports of the group work the same way, until they are installed.
+                for (Accept accepted : accepteds) {
+                    if (accepted.getNewestWrite() != null && applyCommitted(accepted.getNewestWrite())) {
+                        commitNotifier.publish(accepted.getNewestWrite());
+                    }
+                    if (accepted.getImports() == null) {
+                        continue;
+                    }
+                    for (Accept imported : accepted.getImports()) {
+                        if (applyCommitted(imported)) {
+                            commitNotifier.publish(imported);
+                        }
+                    }
                 }
+                applyCommitted(committed);
+            } else {
+                // A write is dropped behind a newer version of its key, learned while the round ran,
+                // so it's proposed again with a number past that version instead of being acknowledged.
+                if (!applyCommitted(committed) && !value.getMethod().equals(Request.Method.IMPORT)) {
+                    group.observeProposalNum(group.getKeyVersion(value.getKey()));
+                    logger.log(Level.INFO, "The key has a newer version than the proposal. Restarting a new Paxos round.");
+                    continue;
+                }
+                commitNotifier.publish(committed);
             }
             logger.log(Level.INFO, "Learning completed.");
+            metrics.recordSince(Metrics.Histogram.LEARN_PHASE_MICROS, phaseStartTime);
+            learnedProposalNum = proposalNum;
             roundFailed = false;
         }
         logger.log(Level.INFO, "The Paxos round ended.");
+        return learnedProposalNum;
+    }
+
+    /**
+     * Wait before the next Paxos round, so the competing proposers can finish theirs.
+     *
+     * @param deadline
+     * @throws RejectedExecutionException if the wait would pass the deadline
+     */
+    private void backOff(long deadline) {
+        if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2000l) - deadline > 0) {
+            throw new RejectedExecutionException("The request would reach its deadline backing off.");
+        }
+        long sleepStartTime = System.nanoTime();
+        try {
+            clock.sleep(2000l);
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Interrupted Exception: {}", e);
+        }
+        metrics.recordSince(Metrics.Histogram.BACKOFF_SLEEP_MICROS, sleepStartTime);
     }
 
     /**
      * Prepare the promise.
      *
+     * @param groupID
      * @param proposalNum
      * @return
      * @throws RemoteException
      */
-    public Promise prepare(long proposalNum) throws RemoteException {
+    public Promise prepare(int groupID, long proposalNum) throws RemoteException {
         // The acceptor is configured to fail at random times.
-        if (proposalNum % randomAcceptorFailureNum == 0l) {
+        if (randomAcceptorFailureNum > 0 && PaxosGroup.roundOf(proposalNum) % randomAcceptorFailureNum == 0l) {
             logger.log(Level.INFO, "The acceptor is configured to fail at random times.");
+            metrics.increment(Metrics.Counter.REJECTED_PREPARES);
             throw new RemoteException("The acceptor is failed.");
         }
 
-        // If the prepare request doesn't reach the rule, don't respond.
-        if (proposalNum <= prevProposalNum) {
-            logger.log(Level.INFO, "The prepare request is rejected, because the proposal number is less than the previous proposal number.");
-            throw new RemoteException("The prepare request is rejected.");
-        }
-
-        // If the prepare request passes the rule, then create a promise to send back.
-        // Store the proposal number and the value.
+        PaxosGroup group = groups[groupID];
         Promise promise = new Promise();
-        promise.setProposalNum(proposalNum);
-        promise.setPrevProposalNum(prevProposalNum);
-        promise.setPrevAcceptedValue(prevAcceptedValue);
+        synchronized (group) {
+            // If the prepare request doesn't reach the rule, don't respond.
+            if (proposalNum <= group.getPrevProposalNum()) {
+                logger.log(Level.INFO, "The prepare request is rejected, because the proposal number is less than the previous proposal number.");
+                metrics.increment(Metrics.Counter.REJECTED_PREPARES);
+                throw new RemoteException("The prepare request is rejected.");
+            }
 
-        logger.log(Level.INFO, "Sending a promise for the proposal: " + proposalNum);
+            // If the prepare request passes the rule, then create a promise to send back.
+            // Store the proposal number and the value.
+            promise.setGroupID(groupID);
+            promise.setProposalNum(proposalNum);
+            promise.setPrevProposalNum(group.getPrevProposalNum());
+            promise.setPrevAcceptedValue(group.getPrevAcceptedValue());
+            promise.setHighestKnownProposalNum(group.getHighestKnownProposalNum());
+        }
+
+        logger.log(Level.INFO, "Sending a promise for the proposal: {}", proposalNum);
         return promise;
     }
 
     /**
-     * Accept the proposal.
+     * Accept the proposal, after learning the commit notices sent with it.
+     * For a read barrier, the accepted message also carries the newest write of the key.
      *
+     * @param groupID
      * @param proposalNum
      * @param request
+     * @param commits
      * @return
      * @throws RemoteException
      */
-    public Accept accept(long proposalNum, Request request) throws RemoteException {
+    public Accept accept(int groupID, long proposalNum, Request request, List<Accept> commits) throws RemoteException {
         // The acceptor is configured to fail at random times.
-        if (proposalNum % randomAcceptorFailureNum == 0l) {
+        if (randomAcceptorFailureNum > 0 && PaxosGroup.roundOf(proposalNum) % randomAcceptorFailureNum == 0l) {
             logger.log(Level.INFO, "The acceptor is configured to fail at random times.");
+            metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
             throw new RemoteException("The acceptor is failed.");
         }
 
+        for (Accept committed : commits) {
+            applyCommitted(committed);
+        }
+
         // If the prepare request doesn't reach the rule, don't respond.
-        if (proposalNum < prevProposalNum) {
+        if (proposalNum < groups[groupID].getPrevProposalNum()) {
             logger.log(Level.INFO, "The accept request is rejected, because the proposal number is less than the previous proposal number.");
+            metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
             throw new RemoteException("The accept request is rejected.");
         }
 
-        logger.log(Level.INFO, "The accept request is confirmed: " + request.toString());
+        if (!groups[groupID].markInFlight(request.getKey(), proposalNum, fastPathConflictTimeout)) {
+            logger.log(Level.INFO, "The accept request is rejected, because a fast accept holds the key.");
+            metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
+            throw new RemoteException("The accept request conflicts with a fast accept.");
+        }
+        logger.log(Level.INFO, "The accept request is confirmed: {}", request);
 
         // If the accept request passes the rule, then create a accepted message to send back.
         Accept accepted = new Accept();
+        accepted.setGroupID(groupID);
+        accepted.setProposalNum(proposalNum);
+        accepted.setValue(request);
+        if (request.getMethod().equals(Request.Method.GET)) {
+            accepted.setNewestWrite(getNewestWrite(groups[groupID], request.getKey()));
+            accepted.setImports(getUninstalledImports(groups[groupID]));
+        } else if (request.getMethod().equals(Request.Method.IMPORT)) {
+            groups[groupID].recordAcceptedImport(accepted);
+        } else {
+            groups[groupID].recordAcceptedWrite(accepted);
+        }
+        return accepted;
+    }
+
+    /**
+     * Get the newest write of the key known to the current server, accepted or learned.
+     *
+     * @param group
+     * @param key
+     * @return the write, or null if the key was never written
+     */
+    private Accept getNewestWrite(PaxosGroup group, String key) {
+        synchronized (group) {
+            Accept accepted = group.getAcceptedWrite(key);
+            if (accepted != null) {
+                return accepted;
+            }
+            long version = group.getKeyVersion(key);
+            if (version == 0l) {
+                return null;
+            }
+            return learnedWrite(group, key, version);
+        }
+    }
+
+    /**
+     * Get the write of the key learned by the proposal, a DELETE if the key doesn't exist.
+     *
+     * @param group
+     * @param key
+     * @param version
+     * @return
+     */
+    private Accept learnedWrite(PaxosGroup group, String key, long version) {
+        String value = keyValueStore.get(key);
+        Accept learned = new Accept();
+        learned.setGroupID(group.getGroupID());
+        learned.setProposalNum(version);
+        learned.setValue(new Request(value == null ? Request.Method.DELETE : Request.Method.PUT, key, value));
+        return learned;
+    }
+
+    /**
+     * Accept the proposal on the fast path.
+     * There is no prepare phase, so the acceptor rejects the value if another write
+     * to the same key is in flight.
+     *
+     * @param groupID
+     * @param proposalNum
+     * @param request
+     * @return
+     * @throws RemoteException
+     */
+    public Accept fastAccept(int groupID, long proposalNum, Request request) throws RemoteException {
+        // The acceptor is configured to fail at random times.
+        if (randomAcceptorFailureNum > 0 && PaxosGroup.roundOf(proposalNum) % randomAcceptorFailureNum == 0l) {
+            logger.log(Level.INFO, "The acceptor is configured to fail at random times.");
+            metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
+            throw new RemoteException("The acceptor is failed.");
+        }
+
+        PaxosGroup group = groups[groupID];
+        synchronized (group) {
+            if (proposalNum < group.getPrevProposalNum()) {
+                logger.log(Level.INFO, "The fast accept request is rejected, because the proposal number is less than the previous proposal number.");
+                metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
+                throw new RemoteException("The fast accept request is rejected.");
+            }
+            // Without a prepare phase, nothing else keeps a write older than the key from being acknowledged.
+            Accept newest = group.getAcceptedWrite(request.getKey());
+            if (proposalNum <= group.getKeyVersion(request.getKey())
+                    || (newest != null && newest.getProposalNum() > proposalNum)) {
+                logger.log(Level.INFO, "The fast accept request is rejected, because the key has a newer write.");
+                metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
+                throw new RemoteException("The fast accept request is older than the key.");
+            }
+            if (!group.tryMarkInFlight(request.getKey(), proposalNum, fastPathConflictTimeout)) {
+                logger.log(Level.INFO, "The fast accept request is rejected, because another write to the key is in flight.");
+                metrics.increment(Metrics.Counter.REJECTED_ACCEPTS);
+                throw new RemoteException("The fast accept request conflicts with an in-flight write.");
+            }
+        }
+
+        logger.log(Level.INFO, "The fast accept request is confirmed: {}", request);
+        Accept accepted = new Accept();
+        accepted.setGroupID(groupID);
         accepted.setProposalNum(proposalNum);
         accepted.setValue(request);
+        group.recordAcceptedWrite(accepted);
         return accepted;
     }
 
+    /**
+     * Release the key held by a fast accept which didn't reach a fast quorum.
+     *
+     * @param groupID
+     * @param proposalNum
+     * @param key
+     * @throws RemoteException
+     */
+    public void releaseFastAccept(int groupID, long proposalNum, String key) throws RemoteException {
+        PaxosGroup group = groups[groupID];
+        synchronized (group) {
+            group.clearInFlight(key, proposalNum);
+            // The write wasn't chosen, so a read barrier must not return it.
+            group.clearAcceptedWrite(key, proposalNum);
+        }
+        logger.log(Level.INFO, "Released the fast accept for the key: {}", key);
+    }
+
     /**
      * Invoke the learner.
      * Call the PUT and DELETE.
@@ -453,29 +1263,512 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
      * @param accepted
      * @throws RemoteException
      */
-    public synchronized void invokeLearner(Accept accepted) throws RemoteException {
+    public void invokeLearner(Accept accepted) throws RemoteException {
         logger.log(Level.INFO, "Learner was invoked.");
 
-        if (lastLearnedProposalNum == accepted.getProposalNum()) {
-            logger.log(Level.INFO, "The value has been learned.");
-            throw new RemoteException("The value has been learned.");
+        PaxosGroup group = groups[accepted.getGroupID()];
+        synchronized (group) {
+            if (accepted.getServerID() == serverID) {
+                logger.log(Level.INFO, "Reset the previous proposal number and accepted value.");
+                group.setPrevProposalNum(0);
+                group.setPrevAcceptedValue(null);
+            }
+        }
+        applyCommitted(accepted);
+    }
+
+    /**
+     * Learn the commit notices sent by a server, and its safe time.
+     * Any server can commit a write, so the safe time holds for every group.
+     *
+     * @param senderID
+     * @param safeTime the sender has sent every notice published before it, or 0
+     * @param commits
+     * @throws RemoteException
+     */
+    public void learn(String senderID, long safeTime, List<Accept> commits) throws RemoteException {
+        logger.log(Level.INFO, "Received {} commit notices.", commits.size());
+        for (Accept committed : commits) {
+            applyCommitted(committed);
+        }
+        if (safeTime > 0) {
+            for (PaxosGroup group : groups) {
+                group.recordSafeTime(senderID, safeTime);
+            }
+        }
+    }
+
+    /**
+     * Apply a chosen value, unless a newer write of the key has been applied already.
+     * The key keeps the proposal number of its last write, so the same notice can arrive
+     * more than once and in any order. An import is queued to be installed.
+     *
+     * @param committed
+     * @return whether the value was applied, or the import queued
+     */
+    private boolean applyCommitted(Accept committed) {
+        PaxosGroup group = groups[committed.getGroupID()];
+        Request currRequest = committed.getValue();
+        long proposalNum = committed.getProposalNum();
+        synchronized (group) {
+            group.clearInFlight(currRequest.getKey(), proposalNum);
+            if (currRequest.getMethod().equals(Request.Method.PUT) || currRequest.getMethod().equals(Request.Method.DELETE)) {
+                if (!group.advanceKeyVersion(currRequest.getKey(), proposalNum)) {
+                    logger.log(Level.INFO, "The value has been learned.");
+                    return false;
+                }
+                if (currRequest.getMethod().equals(Request.Method.PUT)) {
+                    keyValueStore.put(currRequest.getKey(), currRequest.getValue());
+                } else {
+                    keyValueStore.remove(currRequest.getKey());
+                    group.recordTombstone(currRequest.getKey(), proposalNum);
+                }
+            }
+            if (currRequest.getMethod().equals(Request.Method.IMPORT)) {
+                group.clearAcceptedImport(committed);
+            }
+            group.recordLearned(proposalNum);
+        }
+        logger.log(Level.INFO, "Learned a new value: {}", currRequest);
+        if (currRequest.getMethod().equals(Request.Method.IMPORT)) {
+            return queueImport(committed);
+        }
+        return true;
+    }
+
+    /**
+     * Send the queued commit notices now, used when they are not sent in the background.
+     *
+     * @return whether every server got its notices
+     */
+    public boolean flushCommitNotices() {
+        return commitNotifier.flush();
+    }
+
+    /**
+     * Recover the writes accepted by the current server which have not been learned within the timeout.
+     * The proposer answers the client once a majority has accepted, so if it fails before its commit
+     * notices are sent, the write is only on the acceptors. A read barrier of the key finds the write
+     * on one of the majority which accepted it, applies it and sends it to every server.
+     * A write the barrier doesn't find was never chosen, and is dropped.
+     * An accepted import is recovered the same way, with a read barrier of its group.
+     *
+     * @return whether every write was recovered
+     */
+    public boolean recoverAcceptedWrites() {
+        boolean recovered = true;
+        long before = clock.currentTimeMillis() - recoveryTimeout;
+        for (PaxosGroup group : groups) {
+            for (Accept accepted : group.getAcceptedWritesBefore(before)) {
+                String key = accepted.getValue().getKey();
+                logger.log(Level.INFO, "Recovering the write accepted but not learned: {}", accepted.getValue());
+                try {
+                    invokeProposer(new Request(Request.Method.GET, key, null));
+                } catch (TimeoutException | RemoteException | RejectedExecutionException e) {
+                    logger.log(Level.INFO, "Could not recover the write, trying again later: {}", e);
+                    recovered = false;
+                    continue;
+                }
+                group.clearAcceptedWrite(key, accepted.getProposalNum());
+                metrics.increment(Metrics.Counter.RECOVERED_WRITES);
+            }
+            for (Accept accepted : group.getAcceptedImportsBefore(before)) {
+                logger.log(Level.INFO, "Recovering the import accepted but not learned: {}", accepted.getValue());
+                try {
+                    invokeProposer(group, new Request(Request.Method.GET, accepted.getValue().getKey(), null),
+                            admission.newDeadline());
+                } catch (TimeoutException | RemoteException | RejectedExecutionException e) {
+                    logger.log(Level.INFO, "Could not recover the import, trying again later: {}", e);
+                    recovered = false;
+                    continue;
+                }
+                group.clearAcceptedImport(accepted);
+                metrics.increment(Metrics.Counter.RECOVERED_WRITES);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Send a chunk of the snapshot of the group to a server catching up.
+     *
+     * @param groupID
+     * @param afterKey the key to start after, or null to start from the first key
+     * @param limit the number of keys in the chunk
+     * @return
+     * @throws RemoteException
+     */
+    public SnapshotChunk getSnapshot(int groupID, String afterKey, int limit) throws RemoteException {
+        PaxosGroup group = groups[groupID];
+        List<Accept> commits = new ArrayList<>();
+        boolean last;
+        synchronized (group) {
+            // One more key tells whether the chunk is the last one.
+            Map<String, Long> versions = group.getKeyVersionsAfter(afterKey, limit + 1);
+            last = versions.size() <= limit;
+            for (Map.Entry<String, Long> entry : versions.entrySet()) {
+                if (commits.size() >= limit) {
+                    break;
+                }
+                commits.add(learnedWrite(group, entry.getKey(), entry.getValue()));
+            }
+        }
+        return new SnapshotChunk(groupID, commits, last);
+    }
+
+    /**
+     * Catch up with the server, one chunk of a group at a time, used when the current server joins the cluster.
+     *
+     * @param server
+     * @throws RemoteException
+     */
+    public void catchUp(ServerInterface server) throws RemoteException {
+        for (PaxosGroup group : groups) {
+            String afterKey = null;
+            SnapshotChunk chunk;
+            do {
+                chunk = server.getSnapshot(group.getGroupID(), afterKey, snapshotChunkSize);
+                for (Accept committed : chunk.getCommits()) {
+                    applyCommitted(committed);
+                }
+                afterKey = chunk.getLastKey();
+            } while (!chunk.isLast());
+        }
+        logger.log(Level.INFO, "Caught up with the server: {}", server.getServerID());
+    }
+
+    /**
+     * Drop the versions of the keys deleted longer than the grace period ago.
+     *
+     * @return the number of versions dropped
+     */
+    public int collectTombstones() {
+        long before = clock.currentTimeMillis() - tombstoneGrace;
+        int collected = 0;
+        for (PaxosGroup group : groups) {
+            collected += group.collectTombstones(before);
+        }
+        metrics.add(Metrics.Counter.COLLECTED_TOMBSTONES, collected);
+        return collected;
+    }
+
+    /**
+     * Receive a chunk of a segment to import.
+     *
+     * @param segmentID
+     * @param offset
+     * @param chunk
+     * @throws RemoteException
+     */
+    public void writeSegmentChunk(String segmentID, long offset, byte[] chunk) throws RemoteException {
+        try {
+            segmentStore.writeChunk(segmentID, offset, chunk);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RemoteException("Could not write the chunk of the segment: " + segmentID, e);
+        }
+    }
+
+    /**
+     * Seal a segment copied to the current server before its import is proposed.
+     *
+     * @param segmentID
+     * @throws RemoteException
+     */
+    public void sealSegment(String segmentID) throws RemoteException {
+        try {
+            segmentStore.seal(segmentID);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RemoteException("Could not seal the segment: " + segmentID, e);
+        }
+    }
+
+    /**
+     * Send a chunk of a segment to a server installing it.
+     *
+     * @param segmentID
+     * @param offset
+     * @param length
+     * @return the bytes of the chunk, empty after the end of the segment
+     * @throws RemoteException
+     */
+    public byte[] fetchSegment(String segmentID, long offset, int length) throws RemoteException {
+        try {
+            return segmentStore.readChunk(segmentID, offset, length);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RemoteException("Could not read the chunk of the segment: " + segmentID, e);
+        }
+    }
+
+    /**
+     * Import a segment received by the current server.
+     * The whole segment is committed as one Paxos value, which only references it by its ID.
+     * The current server installs it right away, the others fetch it when they learn the value.
+     * Every key of the segment takes the proposal number of the import as its version,
+     * so a write after the import keeps its value on every server, whenever the segment is installed.
+     *
+     * @param segmentID
+     * @return
+     * @throws RemoteException
+     */
+    public Response bulkImport(String segmentID) throws RemoteException {
+        logger.log(Level.INFO, "Received a bulk import of the segment: {}", segmentID);
+        Path segment;
+        try {
+            segment = segmentStore.seal(segmentID);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.log(Level.SEVERE, "The segment can't be imported: {}", e);
+            return new Response("400", Response.Status.FAILED, segmentID);
+        }
+
+        // The import is only proposed once a majority has the segment, so it can be installed
+        // even if the current server fails right after.
+        if (!replicateSegment(segmentID)) {
+            logger.log(Level.SEVERE, "The segment could not be copied to a majority of the servers: {}", segmentID);
+            return new Response("500", Response.Status.FAILED, segmentID);
         }
 
-        if (accepted.getServerID() == serverID) {
-            logger.log(Level.INFO, "Reset the previous proposal number and accepted value.");
-            prevProposalNum = 0;
-            prevAcceptedValue = null;
+        // Every group of the keys learns the import with its own proposal number, which is the version of its keys.
+        Set<Integer> groupIDs = new TreeSet<>();
+        try {
+            Segment.read(segment, (key, value) -> groupIDs.add(router.groupFor(key)));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not read the segment: {}", e);
+            return new Response("500", Response.Status.FAILED, segmentID);
+        }
+        List<String> importIDs = new ArrayList<>();
+        for (int groupID : groupIDs) {
+            try {
+                long proposalNum = invokeProposer(groups[groupID], new Request(Request.Method.IMPORT, segmentID, serverID),
+                        admission.newDeadline());
+                importIDs.add(segmentID + "/" + groupID + "/" + proposalNum);
+            } catch (TimeoutException | RemoteException e) {
+                logger.log(Level.SEVERE, "The import failed: {}", e);
+                return new Response("500", Response.Status.FAILED, segmentID);
+            } catch (RejectedExecutionException e) {
+                metrics.increment(Metrics.Counter.OVERLOADED_REQUESTS);
+                logger.log(Level.INFO, "Overloaded: {}", e);
+                return new Response("503", Response.Status.OVERLOADED, segmentID);
+            }
         }
 
-        Request currRequest = accepted.getValue();
-        if (currRequest.getMethod().equals(Request.Method.PUT)) {
-            keyValueStore.put(currRequest.getKey(), currRequest.getValue());
-        } else if (currRequest.getMethod().equals(Request.Method.DELETE)) {
-            keyValueStore.remove(currRequest.getKey());
+        installImports();
+        synchronized (pendingImports) {
+            if (!installedImports.containsAll(importIDs)) {
+                return new Response("500", Response.Status.FAILED, segmentID);
+            }
         }
+        return new Response("200", Response.Status.SUCCEED, segmentID);
+    }
 
-        lastLearnedProposalNum = accepted.getProposalNum();
-        logger.log(Level.INFO, "Learned a new value: " + currRequest);
+    /**
+     * Copy the segment to the other servers until a majority of the servers, the current one included, has it.
+     *
+     * @param segmentID
+     * @return whether a majority has the segment
+     * @throws RemoteException
+     */
+    private boolean replicateSegment(String segmentID) throws RemoteException {
+        String[] names = registry.list();
+        int majority = names.length / 2 + 1;
+        int holders = 1;
+        for (String name : names) {
+            if (holders >= majority) {
+                break;
+            }
+            if (name.equals("Server") || name.equals(serverID)) {
+                continue;
+            }
+            try {
+                ServerInterface peer = (ServerInterface) registry.lookup(name);
+                segmentStore.push(segmentID, peer);
+                holders++;
+                logger.log(Level.INFO, "Copied the segment to the server: {}", name);
+            } catch (NotBoundException | IOException e) {
+                logger.log(Level.INFO, "Could not copy the segment to the server: {}", name);
+            }
+        }
+        return holders >= majority;
+    }
+
+    /**
+     * Get the ID of an import, which is learned once for each group of its keys, and again if it's retried.
+     *
+     * @param committed
+     * @return
+     */
+    private static String importIDOf(Accept committed) {
+        return committed.getValue().getKey() + "/" + committed.getGroupID() + "/" + committed.getProposalNum();
+    }
+
+    /**
+     * Queue a learned import to be installed, unless it's queued or installed already.
+     *
+     * @param committed
+     * @return whether the import was queued
+     */
+    private boolean queueImport(Accept committed) {
+        String importID = importIDOf(committed);
+        synchronized (pendingImports) {
+            if (installedImports.contains(importID) || pendingImports.containsKey(importID)) {
+                return false;
+            }
+            pendingImports.put(importID, committed);
+        }
+        if (maintenance != null) {
+            maintenance.execute(this::installImports);
+        }
+        return true;
+    }
+
+    /**
+     * Get the imports of the group accepted or learned by the current server, and not installed yet.
+     * Once an import is installed, its keys carry it as their newest write.
+     *
+     * @param group
+     * @return
+     */
+    private List<Accept> getUninstalledImports(PaxosGroup group) {
+        List<Accept> imports = group.getAcceptedImports();
+        synchronized (pendingImports) {
+            for (Accept committed : pendingImports.values()) {
+                if (committed.getGroupID() == group.getGroupID()) {
+                    imports.add(committed);
+                }
+            }
+        }
+        return imports;
+    }
+
+    /**
+     * Install the learned imports now, used by a read barrier before it reads a key of the group.
+     *
+     * @param group
+     * @return whether every learned import of the group is installed
+     */
+    private boolean installImports(PaxosGroup group) {
+        if (getUninstalledImports(group).isEmpty()) {
+            return true;
+        }
+        installImports();
+        synchronized (pendingImports) {
+            for (Accept committed : pendingImports.values()) {
+                if (committed.getGroupID() == group.getGroupID()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Install the learned imports, in one pass over each segment for all the groups it was learned in.
+     * The imports of a segment which can't be installed yet are kept for the next call,
+     * and don't hold up the other segments, since the versions of the keys decide which write wins.
+     *
+     * @return whether every import is installed
+     */
+    public boolean installImports() {
+        synchronized (installLock) {
+            Map<String, List<Accept>> segments = new LinkedHashMap<>();
+            synchronized (pendingImports) {
+                for (Accept committed : pendingImports.values()) {
+                    segments.computeIfAbsent(committed.getValue().getKey(), id -> new ArrayList<>()).add(committed);
+                }
+            }
+            boolean installed = true;
+            for (List<Accept> imports : segments.values()) {
+                if (!installSegment(imports)) {
+                    installed = false;
+                    continue;
+                }
+                synchronized (pendingImports) {
+                    for (Accept committed : imports) {
+                        pendingImports.remove(importIDOf(committed));
+                        installedImports.add(importIDOf(committed));
+                    }
+                }
+            }
+            return installed;
+        }
+    }
+
+    /**
+     * Install the keys of a segment in the groups it was learned in, after fetching it if it's not on the current server.
+     * Each key gets the proposal number of the import in its group.
+     *
+     * @param imports the imports of the segment
+     * @return whether the segment was installed
+     */
+    private boolean installSegment(List<Accept> imports) {
+        // An import learned again in a group, when it was retried, only needs its newest proposal.
+        Map<Integer, Accept> newest = new HashMap<>();
+        for (Accept committed : imports) {
+            newest.merge(committed.getGroupID(), committed,
+                    (current, other) -> current.getProposalNum() >= other.getProposalNum() ? current : other);
+        }
+        Accept first = imports.get(0);
+        String segmentID = first.getValue().getKey();
+        try {
+            Path segment = segmentStore.contains(segmentID) ? segmentStore.pathOf(segmentID)
+                    : fetchSegmentFromPeers(segmentID, first.getValue().getValue());
+            if (segment == null) {
+                return false;
+            }
+            long[] count = new long[1];
+            Segment.read(segment, (key, value) -> {
+                Accept committed = newest.get(router.groupFor(key));
+                // The other groups install the key once they learn the import.
+                if (committed == null) {
+                    return;
+                }
+                PaxosGroup group = groups[committed.getGroupID()];
+                synchronized (group) {
+                    if (group.advanceKeyVersion(key, committed.getProposalNum())) {
+                        keyValueStore.put(key, value);
+                    }
+                }
+                count[0]++;
+            });
+            metrics.increment(Metrics.Counter.IMPORTED_SEGMENTS);
+            metrics.add(Metrics.Counter.IMPORTED_KEYS, count[0]);
+            logger.log(Level.INFO, "Installed {} keys of the segment: {}", count[0], segmentID);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not install the segment: {}", e);
+            return false;
+        }
+    }
+
+    /**
+     * Stream the segment from the server which imported it, or from any server which has it.
+     *
+     * @param segmentID
+     * @param sourceID
+     * @return the segment, or null if no server could send it
+     * @throws RemoteException
+     */
+    private Path fetchSegmentFromPeers(String segmentID, String sourceID) throws RemoteException {
+        List<String> candidates = new ArrayList<>();
+        candidates.add(sourceID);
+        for (String name : registry.list()) {
+            if (!name.equals("Server") && !name.equals(sourceID)) {
+                candidates.add(name);
+            }
+        }
+        for (String candidate : candidates) {
+            if (candidate.equals(serverID)) {
+                continue;
+            }
+            try {
+                ServerInterface peer = (ServerInterface) registry.lookup(candidate);
+                Path segment = segmentStore.fetch(segmentID, peer);
+                logger.log(Level.INFO, "Fetched the segment from the server: {}", candidate);
+                return segment;
+            } catch (NotBoundException | IOException e) {
+                logger.log(Level.INFO, "Could not fetch the segment from the server: {}", candidate);
+            }
+        }
+        return null;
     }
 
     /**
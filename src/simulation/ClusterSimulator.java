@@ -0,0 +1,773 @@
+package simulation;
+
+import common.LatencyHistogram;
+import common.Logger;
+import common.Request;
+import common.Response;
+import common.Segment;
+import common.ServerInterface;
+import server.Clock;
+import server.Server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deterministic simulator of a cluster, running every server in the current JVM.
+ * The servers talk through SimNetwork instead of RMI, and the Paxos rounds run on a virtual clock,
+ * so a scenario gives the same results on every run with the same seed, and a fault found once
+ * can be replayed. The client sessions run concurrently, interleaved by a seeded scheduler at every message.
+ * Each scenario injects its faults at given operations, then heals the cluster and checks that
+ * no read was stale, no acknowledged write was lost, no replica holds a value nobody wrote,
+ * and every replica has converged once the commit notices are delivered.
+ *
+ * Usage: [seed=1] [servers=5] [operations=2000] [keys=100] [readProportion=0.2] [sessions=4] [scenario=all] [verbose=false]
+ */
+public class ClusterSimulator {
+    public final static common.Logger logger = new Logger();
+    // Keep a reference, otherwise the level is lost when the logger is collected.
+    private static final java.util.logging.Logger storeLogger = java.util.logging.Logger.getLogger(common.Logger.class.getName());
+    private static final String CLIENT_ID = "client";
+    // The virtual clock starts at a fixed time, so the proposal numbers are the same on every run.
+    private static final long START_MILLIS = 1600000000000l;
+    // The time between the commit notices sent by the background session, like paxos.commitNoticeInterval.
+    private static final long COMMIT_NOTICE_INTERVAL_MILLIS = 20l;
+
+    /**
+     * Faults of a scenario, applied to the network before the given operations.
+     */
+    private static class Scenario {
+        private final String name;
+        private final Map<Integer, List<Consumer<SimNetwork>>> faults;
+        // The operation replaced by a bulk import of every key, or -1.
+        private int importAt = -1;
+        // Whether the servers try the leaderless fast path for the writes.
+        private boolean fastPath;
+        // How far ahead of the virtual clock the clock of a server is.
+        private final Map<String, Long> clockSkews = new HashMap<>();
+
+        private Scenario(String name) {
+            this.name = name;
+            this.faults = new TreeMap<>();
+        }
+
+        private Scenario fastPath() {
+            fastPath = true;
+            return this;
+        }
+
+        private Scenario clockSkew(String serverID, long millis) {
+            clockSkews.put(serverID, millis);
+            return this;
+        }
+
+        private Scenario bulkImport(int operation) {
+            importAt = operation;
+            return this;
+        }
+
+        private Scenario at(int operation, Consumer<SimNetwork> fault) {
+            faults.computeIfAbsent(operation, op -> new ArrayList<>()).add(fault);
+            return this;
+        }
+    }
+
+    private final long seed;
+    private final int serverNum;
+    private final int operations;
+    private final int keys;
+    private final double readProportion;
+    private final int sessions;
+    private final List<String> serverIDs;
+
+    /**
+     * Constructor.
+     *
+     * @param options
+     */
+    public ClusterSimulator(Map<String, String> options) {
+        this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        this.serverNum = Integer.parseInt(options.getOrDefault("servers", "5"));
+        this.operations = Integer.parseInt(options.getOrDefault("operations", "2000"));
+        this.keys = Integer.parseInt(options.getOrDefault("keys", "100"));
+        this.readProportion = Double.parseDouble(options.getOrDefault("readProportion", "0.2"));
+        this.sessions = Integer.parseInt(options.getOrDefault("sessions", "4"));
+        if (serverNum < 3 || operations <= 0 || keys <= 0 || sessions <= 0) {
+            throw new IllegalArgumentException("The simulator needs at least 3 servers, and positive operations, keys and sessions.");
+        }
+        this.serverIDs = new ArrayList<>();
+        for (int i = 0; i < serverNum; i++) {
+            serverIDs.add("server" + i);
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.split("=");
+            if (pair.length != 2) {
+                logger.log(Level.SEVERE, "The option should be in a format of option=value: {}", arg);
+                System.exit(1);
+            }
+            options.put(pair[0].trim(), pair[1].trim());
+        }
+        storeLogger.setLevel(Boolean.parseBoolean(options.getOrDefault("verbose", "false")) ? Level.INFO : Level.WARNING);
+
+        boolean safe = true;
+        try {
+            ClusterSimulator simulator = new ClusterSimulator(options);
+            String only = options.getOrDefault("scenario", "all");
+            boolean found = false;
+            for (Scenario scenario : simulator.scenarios()) {
+                if (only.equals("all") || only.equals(scenario.name)) {
+                    found = true;
+                    safe &= simulator.run(scenario);
+                }
+            }
+            if (!found) {
+                logger.log(Level.SEVERE, "No such scenario: {}", only);
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Simulator error: {}", e);
+            System.exit(1);
+        }
+        System.exit(safe ? 0 : 2);
+    }
+
+    /**
+     * The built-in scenarios.
+     *
+     * @return
+     */
+    private List<Scenario> scenarios() {
+        String first = serverIDs.get(0);
+        String last = serverIDs.get(serverNum - 1);
+        // The minority side of the partitions, the first two servers for 5 servers.
+        Set<String> minority = new HashSet<>(serverIDs.subList(0, (serverNum - 1) / 2));
+        Set<String> majority = new HashSet<>(serverIDs.subList((serverNum - 1) / 2, serverNum));
+        List<Set<String>> split = new ArrayList<>();
+        for (String serverID : serverIDs) {
+            split.add(new HashSet<>(Arrays.asList(serverID)));
+        }
+
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("baseline"));
+        scenarios.add(new Scenario("slow-replica")
+                .at(0, network -> network.slowDown(last, 20)));
+        scenarios.add(new Scenario("message-loss")
+                .at(0, network -> network.setDropRate(0.02)));
+        // The concurrent sessions race on the keys without a prepare phase, and a lost message sends a write
+        // back to the classic Paxos. The first server numbers its proposals a second ahead of the others.
+        scenarios.add(new Scenario("fast-path")
+                .fastPath()
+                .clockSkew(first, 1000l)
+                .at(0, network -> network.setDropRate(0.02)));
+        scenarios.add(new Scenario("minority-partition")
+                .at(operations / 4, network -> network.partition(Arrays.asList(minority, majority)))
+                .at(operations * 3 / 4, SimNetwork::heal));
+        scenarios.add(new Scenario("crash-recover")
+                .at(operations / 3, network -> network.crash(first))
+                .at(operations * 2 / 3, network -> network.recover(first)));
+        scenarios.add(new Scenario("full-split")
+                .at(operations / 3, network -> network.partition(split))
+                .at(operations * 2 / 3, SimNetwork::heal));
+        // The last server crashes once the import is done, and restarts with nothing but the segments on its disk.
+        scenarios.add(new Scenario("bulk-import")
+                .bulkImport(operations / 3)
+                .at(operations / 2, network -> network.crash(last))
+                .at(operations * 2 / 3, network -> network.recover(last)));
+        return scenarios;
+    }
+
+    /**
+     * Run the scenario on a new cluster and print its report.
+     *
+     * @param scenario
+     * @return whether the safety checks passed
+     * @throws IOException
+     */
+    private boolean run(Scenario scenario) throws IOException {
+        // The simulator sends the commit notices and recovers the writes itself, in a background session.
+        System.setProperty("paxos.commitNoticeInterval", "0");
+        System.setProperty("paxos.fastPath", String.valueOf(scenario.fastPath));
+        // The admission deadlines are in real time, so they are kept out of reach to keep the runs the same.
+        System.setProperty("paxos.admissionTimeout", "3600000");
+        Path segmentDirectory = Files.createTempDirectory("kvstore-simulation");
+        System.setProperty("segment.dir", segmentDirectory.toString());
+        SimClock clock = new SimClock(START_MILLIS);
+        SimNetwork network = new SimNetwork(clock, seed);
+        List<Server> servers = new ArrayList<>();
+        for (String serverID : serverIDs) {
+            Server server = newServer(serverID, network, clock, scenario);
+            network.addServer(serverID, server);
+            servers.add(server);
+        }
+
+        try {
+            return new Workload(scenario, clock, network, servers, segmentDirectory).run();
+        } finally {
+            for (Server server : servers) {
+                shutdown(server);
+            }
+            deleteRecursively(segmentDirectory);
+        }
+    }
+
+    private Server newServer(String serverID, SimNetwork network, SimClock clock, Scenario scenario) throws RemoteException {
+        SimRegistry registry = new SimRegistry(serverID, network);
+        // Bound the same way as Server.main and registerNewServer do.
+        registry.bindServerID("Server", serverID);
+        for (String peerID : serverIDs) {
+            if (!peerID.equals(serverID)) {
+                registry.bindServerID(peerID, peerID);
+            }
+        }
+        long skew = scenario.clockSkews.getOrDefault(serverID, 0l);
+        if (skew == 0l) {
+            return new Server(serverID, registry, 0, clock);
+        }
+        return new Server(serverID, registry, 0, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return clock.currentTimeMillis() + skew;
+            }
+
+            @Override
+            public void sleep(long millis) {
+                clock.sleep(millis);
+            }
+        });
+    }
+
+    /**
+     * The writes of the clients, ordered by a sequence shared by every session, to check the reads
+     * and the replicas against. A write is overwritten once a write acknowledged after it, which
+     * started after it had returned, has returned too. A write in flight may take effect at any time.
+     */
+    private static class History {
+        private long sequence;
+        private final Map<String, List<Write>> writes;
+
+        private static class Write {
+            private final String value;
+            private final long start;
+            private long end;
+            private boolean acknowledged;
+
+            private Write(String value, long start) {
+                this.value = value;
+                this.start = start;
+                this.end = Long.MAX_VALUE;
+            }
+        }
+
+        private History() {
+            this.writes = new HashMap<>();
+        }
+
+        private synchronized long next() {
+            return ++sequence;
+        }
+
+        private synchronized Write begin(String key, String value) {
+            Write write = new Write(value, ++sequence);
+            writes.computeIfAbsent(key, k -> new ArrayList<>()).add(write);
+            return write;
+        }
+
+        private synchronized void end(Write write, boolean acknowledged) {
+            write.end = ++sequence;
+            write.acknowledged = acknowledged;
+        }
+
+        private boolean isOverwritten(String key, Write write, long time) {
+            // A write without a response may still take effect later, after any other write.
+            if (!write.acknowledged) {
+                return false;
+            }
+            for (Write other : writes.get(key)) {
+                if (other.acknowledged && other.start > write.end && other.end < time) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized boolean isWritten(String key, String value) {
+            for (Write write : writes.getOrDefault(key, new ArrayList<>())) {
+                if (write.value.equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized boolean isAcknowledged(String key) {
+            for (Write write : writes.getOrDefault(key, new ArrayList<>())) {
+                if (write.acknowledged) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Check a linearizable read of the key, which started and returned at the given sequence.
+         *
+         * @param key
+         * @param value the value read, or null if the key doesn't exist
+         * @param start
+         * @param end
+         * @return the violation, or null
+         */
+        private synchronized String checkRead(String key, String value, long start, long end) {
+            List<Write> keyWrites = writes.getOrDefault(key, new ArrayList<>());
+            if (value == null) {
+                for (Write write : keyWrites) {
+                    if (write.acknowledged && write.end < start) {
+                        return "stale read of " + key + ": nothing instead of " + write.value;
+                    }
+                }
+                return null;
+            }
+            for (Write write : keyWrites) {
+                if (write.value.equals(value)) {
+                    if (write.start > end) {
+                        return "read of " + key + " before it was written: " + value;
+                    }
+                    if (isOverwritten(key, write, start)) {
+                        return "stale read of " + key + ": " + value + " was overwritten before the read";
+                    }
+                    return null;
+                }
+            }
+            return "read of " + key + " which nobody wrote: " + value;
+        }
+
+        /**
+         * Get the values the key may end with, the writes which were not overwritten.
+         *
+         * @param key
+         * @return
+         */
+        private synchronized Set<String> finalValues(String key) {
+            Set<String> values = new HashSet<>();
+            for (Write write : writes.getOrDefault(key, new ArrayList<>())) {
+                if (!isOverwritten(key, write, Long.MAX_VALUE)) {
+                    values.add(write.value);
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * A run of a scenario: the client sessions and a background session sending the commit notices,
+     * interleaved by the scheduler. The faults are injected by the session which starts the given operation.
+     * A crashed server is restarted with a new instance once it recovers, which only keeps its segments
+     * on disk, and catches up with a peer the way a server joining the cluster does.
+     * Only one session runs at a time, so the state of the run is not locked.
+     */
+    private class Workload {
+        private final Scenario scenario;
+        private final SimClock clock;
+        private final SimNetwork network;
+        private final List<Server> servers;
+        private final Path segmentDirectory;
+        private final SimScheduler scheduler;
+        private final History history;
+        private final LatencyHistogram writeLatency;
+        private final LatencyHistogram readLatency;
+        private final List<String> violations;
+        // The servers crashed, which are restarted once they recover.
+        private final Set<String> down;
+        private long committed;
+        private long failedWrites;
+        private long failedReads;
+        private int nextOperation;
+        private int runningSessions;
+        private long endTime;
+
+        private Workload(Scenario scenario, SimClock clock, SimNetwork network, List<Server> servers, Path segmentDirectory) {
+            this.scenario = scenario;
+            this.clock = clock;
+            this.network = network;
+            this.servers = servers;
+            this.segmentDirectory = segmentDirectory;
+            this.scheduler = new SimScheduler(clock, seed);
+            this.history = new History();
+            this.writeLatency = new LatencyHistogram();
+            this.readLatency = new LatencyHistogram();
+            this.violations = new ArrayList<>();
+            this.down = new HashSet<>();
+        }
+
+        private boolean run() throws RemoteException {
+            clock.setScheduler(scheduler);
+            network.setScheduler(scheduler);
+            long startTime = clock.currentTimeMillis();
+            runningSessions = sessions;
+            for (int i = 0; i < sessions; i++) {
+                int index = i;
+                scheduler.spawn(scenario.name + "-session-" + i, () -> session(index));
+            }
+            scheduler.spawn(scenario.name + "-background", this::background);
+            try {
+                scheduler.run();
+            } finally {
+                clock.setScheduler(null);
+                network.setScheduler(null);
+            }
+            long elapsedMillis = endTime - startTime;
+
+            // Heal the cluster and let the replicas catch up before checking them.
+            network.heal();
+            for (String serverID : serverIDs) {
+                network.recover(serverID);
+            }
+            restartRecovered();
+            network.setDropRate(0.0);
+            int rounds = 0;
+            while (!flushCommitNotices(network, servers) && ++rounds < 10) {
+                logger.log(Level.INFO, "Some commit notices were not delivered, flushing again.");
+            }
+            int divergentKeys = checkReplicas(servers, history, violations);
+
+            double elapsedSeconds = Math.max(elapsedMillis, 1l) / 1000.0;
+            System.out.println(String.format("[%s] seed: %d, servers: %d, sessions: %d, virtual runtime: %.1f s, throughput: %.1f commits/s, messages: %d, dropped: %d, unreachable: %d",
+                    scenario.name, seed, serverNum, sessions, elapsedSeconds, committed / elapsedSeconds,
+                    network.getMessages(), network.getDropped(), network.getUnreachable()));
+            printHistogram(scenario.name, "WRITE", writeLatency, committed, failedWrites);
+            printHistogram(scenario.name, "READ", readLatency, readLatency.getTotalCount() - failedReads, failedReads);
+            System.out.println(String.format("[%s] safety: %s, divergent keys: %d",
+                    scenario.name, violations.isEmpty() ? "OK" : "VIOLATED (" + violations.size() + ")", divergentKeys));
+            for (String violation : violations.subList(0, Math.min(violations.size(), 10))) {
+                System.out.println(String.format("[%s]   %s", scenario.name, violation));
+            }
+            return violations.isEmpty();
+        }
+
+        /**
+         * A client session, which runs the next operation of the workload until there's none left.
+         *
+         * @param index
+         */
+        private void session(int index) {
+            Random random = new Random(seed * 31 + index);
+            String clientID = CLIENT_ID + index;
+            for (int operation = nextOperation++; operation < operations; operation = nextOperation++) {
+                try {
+                    for (Consumer<SimNetwork> fault : scenario.faults.getOrDefault(operation, new ArrayList<>())) {
+                        fault.accept(network);
+                    }
+                    restartRecovered();
+
+                    List<String> live = new ArrayList<>();
+                    for (String serverID : serverIDs) {
+                        if (!network.isCrashed(serverID)) {
+                            live.add(serverID);
+                        }
+                    }
+                    ServerInterface coordinator = network.stub(clientID, live.get(random.nextInt(live.size())));
+                    if (operation == scenario.importAt) {
+                        importKeys(coordinator, operation);
+                    } else if (random.nextDouble() < readProportion) {
+                        read(coordinator, clientID, "key" + random.nextInt(keys), operation);
+                    } else {
+                        write(coordinator, clientID, "key" + random.nextInt(keys), operation);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            endTime = Math.max(endTime, clock.currentTimeMillis());
+            runningSessions--;
+        }
+
+        private void read(ServerInterface coordinator, String clientID, String key, int operation) {
+            Request request = new Request(Request.Method.GET, key, null);
+            request.setConsistency(Request.Consistency.LINEARIZABLE);
+            request.setClientID(clientID);
+            long operationStart = clock.currentTimeMillis();
+            long start = history.next();
+            Response response = null;
+            try {
+                response = coordinator.get(request);
+            } catch (RemoteException e) {
+                logger.log(Level.INFO, "The read failed: {}", e);
+            }
+            long end = history.next();
+            readLatency.recordValue(clock.currentTimeMillis() - operationStart);
+            if (response == null || (response.getStatus() != Response.Status.SUCCEED && !"400".equals(response.getCode()))) {
+                failedReads++;
+                return;
+            }
+            String violation = history.checkRead(key, response.getStatus() == Response.Status.SUCCEED ? response.getValue() : null,
+                    start, end);
+            if (violation != null) {
+                violations.add(violation + ", at operation " + operation);
+            }
+        }
+
+        private void write(ServerInterface coordinator, String clientID, String key, int operation) {
+            String value = "value" + operation;
+            Request request = new Request(Request.Method.PUT, key, value);
+            request.setClientID(clientID);
+            long operationStart = clock.currentTimeMillis();
+            History.Write write = history.begin(key, value);
+            Response response = null;
+            try {
+                response = coordinator.put(request);
+            } catch (RemoteException e) {
+                logger.log(Level.INFO, "The write failed: {}", e);
+            }
+            boolean acknowledged = response != null && response.getStatus() == Response.Status.SUCCEED;
+            history.end(write, acknowledged);
+            writeLatency.recordValue(clock.currentTimeMillis() - operationStart);
+            if (acknowledged) {
+                committed++;
+            } else {
+                failedWrites++;
+            }
+        }
+
+        private void importKeys(ServerInterface coordinator, int operation) throws IOException {
+            long importStart = clock.currentTimeMillis();
+            List<History.Write> imported = new ArrayList<>();
+            for (int i = 0; i < keys; i++) {
+                imported.add(history.begin("key" + i, "import" + operation + "_" + i));
+            }
+            Response response = bulkImport(coordinator, segmentDirectory, "import" + operation + "_");
+            for (History.Write write : imported) {
+                history.end(write, response != null && response.getStatus() == Response.Status.SUCCEED);
+            }
+            System.out.println(String.format("[%s] [IMPORT] keys: %d, status: %s, latency (virtual ms): %d",
+                    scenario.name, keys, response == null ? "EXCEPTION" : response.getStatus(), clock.currentTimeMillis() - importStart));
+        }
+
+        /**
+         * Recover the writes of the failed proposers and send the commit notices of every running server,
+         * the way the maintenance of a server does, until the client sessions are done.
+         * The imports are left to the read barriers and the final drain.
+         */
+        private void background() {
+            while (runningSessions > 0) {
+                clock.sleep(COMMIT_NOTICE_INTERVAL_MILLIS);
+                for (int i = 0; i < serverIDs.size(); i++) {
+                    if (!network.isCrashed(serverIDs.get(i))) {
+                        servers.get(i).recoverAcceptedWrites();
+                        servers.get(i).flushCommitNotices();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Restart the servers which recovered since they crashed.
+         *
+         * @throws RemoteException
+         */
+        private void restartRecovered() throws RemoteException {
+            for (int i = 0; i < serverIDs.size(); i++) {
+                String serverID = serverIDs.get(i);
+                if (network.isCrashed(serverID)) {
+                    down.add(serverID);
+                } else if (down.remove(serverID)) {
+                    restart(i);
+                }
+            }
+        }
+
+        /**
+         * Replace the server with a new instance, which lost everything but its segments,
+         * and catch up with the first peer which can be reached.
+         *
+         * @param index
+         * @throws RemoteException
+         */
+        private void restart(int index) throws RemoteException {
+            String serverID = serverIDs.get(index);
+            shutdown(servers.get(index));
+            Server server = newServer(serverID, network, clock, scenario);
+            servers.set(index, server);
+            network.addServer(serverID, server);
+            for (String peerID : serverIDs) {
+                if (peerID.equals(serverID) || network.isCrashed(peerID)) {
+                    continue;
+                }
+                try {
+                    server.catchUp(network.stub(serverID, peerID));
+                    return;
+                } catch (RemoteException e) {
+                    logger.log(Level.INFO, "Could not catch up with the server, trying the next one: {}", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recover the writes of the failed proposers, send the commit notices of every running server,
+     * then install the imports they brought, in the background.
+     *
+     * @param network
+     * @param servers
+     * @return whether every notice was delivered and every import installed
+     */
+    private static boolean flushCommitNotices(SimNetwork network, List<Server> servers) throws RemoteException {
+        boolean[] delivered = new boolean[]{true};
+        // The writes whose proposer failed before sending its notices are not counted as undelivered,
+        // they are recovered once a majority can run a round again.
+        for (Server server : servers) {
+            if (!network.isCrashed(server.getServerID())) {
+                network.runInBackground(server::recoverAcceptedWrites);
+            }
+        }
+        for (Server server : servers) {
+            if (!network.isCrashed(server.getServerID())) {
+                network.runInBackground(() -> delivered[0] &= server.flushCommitNotices());
+            }
+        }
+        for (Server server : servers) {
+            if (!network.isCrashed(server.getServerID())) {
+                network.runInBackground(() -> delivered[0] &= server.installImports());
+            }
+        }
+        return delivered[0];
+    }
+
+    /**
+     * Import every key with the value prefix and its number, the way BulkImporter does.
+     *
+     * @param coordinator
+     * @param directory
+     * @param valuePrefix
+     * @return the response, or null if the import failed with an exception
+     * @throws IOException
+     */
+    private Response bulkImport(ServerInterface coordinator, Path directory, String valuePrefix) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            lines.add("key" + i + "\t" + valuePrefix + i);
+        }
+        Collections.sort(lines);
+        Path input = directory.resolve("import.txt");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+        String segmentID = Segment.build(input, directory.resolve("client"));
+        byte[] content = Files.readAllBytes(directory.resolve("client").resolve(segmentID + Segment.EXTENSION));
+        try {
+            for (int offset = 0; offset < content.length; offset += Segment.CHUNK_SIZE) {
+                coordinator.writeSegmentChunk(segmentID, offset,
+                        Arrays.copyOfRange(content, offset, Math.min(content.length, offset + Segment.CHUNK_SIZE)));
+            }
+            // Like a client, retry an import which failed, a retry only installs the same values again.
+            Response response = coordinator.bulkImport(segmentID);
+            for (int tried = 1; tried < 3 && "500".equals(response.getCode()); tried++) {
+                response = coordinator.bulkImport(segmentID);
+            }
+            return response;
+        } catch (RemoteException e) {
+            logger.log(Level.INFO, "The import failed: {}", e);
+            return null;
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Check the stores of the replicas against the history.
+     * Every value must have been written by a client, and once a write was acknowledged, a majority
+     * must hold one of the writes which were not overwritten. After the catch-up, the replicas must agree.
+     *
+     * @param servers
+     * @param history
+     * @param violations
+     * @return the number of keys the replicas disagree on
+     * @throws RemoteException
+     */
+    private int checkReplicas(List<Server> servers, History history, List<String> violations) throws RemoteException {
+        Map<String, Map<String, String>> stores = new LinkedHashMap<>();
+        for (Server server : servers) {
+            stores.put(server.getServerID(), server.getStorage());
+        }
+
+        int divergentKeys = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "key" + i;
+            Set<String> finalValues = history.finalValues(key);
+            Set<String> values = new HashSet<>();
+            int holders = 0;
+            for (Map.Entry<String, Map<String, String>> store : stores.entrySet()) {
+                String value = store.getValue().get(key);
+                values.add(value);
+                if (value != null && !history.isWritten(key, value)) {
+                    violations.add("invalid value of " + key + " on " + store.getKey() + ": " + value);
+                }
+                if (value != null && finalValues.contains(value)) {
+                    holders++;
+                }
+            }
+            if (values.size() > 1) {
+                divergentKeys++;
+                violations.add("the replicas diverge on " + key + ": " + values);
+            }
+            if (history.isAcknowledged(key) && holders <= stores.size() / 2) {
+                violations.add("acknowledged write of " + key + " is only held by " + holders + " replicas: "
+                        + finalValues);
+            }
+        }
+        return divergentKeys;
+    }
+
+    private static void printHistogram(String scenario, String operation, LatencyHistogram histogram, long succeeded, long failed) {
+        System.out.println(String.format("[%s] [%s] succeeded: %d, failed: %d, latency (virtual ms) mean: %.1f, p50: %d, p99: %d, max: %d",
+                scenario, operation, succeeded, failed, histogram.getMean(),
+                histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0), histogram.getMax()));
+    }
+
+    /**
+     * Stop the server, so the next scenario can reuse its ID.
+     *
+     * @param server
+     */
+    private static void shutdown(Server server) {
+        try {
+            server.getMetrics().unregisterMBean(server.getServerID());
+        } catch (Exception e) {
+            logger.log(Level.INFO, "Could not unregister the metrics MBean: {}", e);
+        }
+        try {
+            UnicastRemoteObject.unexportObject(server, true);
+        } catch (NoSuchObjectException e) {
+            // Already stopped.
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package simulation;
+
+import server.Clock;
+
+/**
+ * Virtual clock of the simulator.
+ * The time only moves when a message is delivered or a server backs off,
+ * so a run takes the same virtual time whatever the speed of the machine.
+ * A session of the scheduler backs off by yielding, so the other sessions run in the meantime.
+ */
+public class SimClock implements Clock {
+    private long now;
+    private SimScheduler scheduler;
+
+    /**
+     * Constructor.
+     *
+     * @param startMillis
+     */
+    public SimClock(long startMillis) {
+        this.now = startMillis;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return now;
+    }
+
+    public synchronized void setScheduler(SimScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Back off without waiting, the time is only moved forward.
+     *
+     * @param millis
+     */
+    @Override
+    public void sleep(long millis) {
+        SimScheduler currScheduler;
+        synchronized (this) {
+            currScheduler = scheduler;
+        }
+        if (currScheduler != null && currScheduler.isSession()) {
+            currScheduler.await(millis);
+        } else {
+            advance(millis);
+        }
+    }
+
+    public synchronized void advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The clock can't move backwards.");
+        }
+        now += millis;
+    }
+}
@@ -0,0 +1,317 @@
+package simulation;
+
+import common.ServerInterface;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-memory transport between the servers of the simulator, standing in for RMI.
+ * Every call is delivered in the calling thread, after a latency taken from a seeded random
+ * source and charged to the virtual clock. A session of the scheduler yields for the latency instead,
+ * so the calls of the sessions interleave. The arguments and the results are copied by
+ * serialization, so the servers never share state the way RMI would not let them.
+ * The faults are injected per call: a crashed or partitioned server can't be reached,
+ * and a message may be dropped either before it's delivered or on its way back.
+ * A restarted server replaces the crashed one under the same ID.
+ */
+public class SimNetwork {
+    private final SimClock clock;
+    private final Random random;
+    private final Map<String, ServerInterface> servers;
+    private SimScheduler scheduler;
+
+    private long minLatencyMillis = 1l;
+    private long maxLatencyMillis = 5l;
+    // A lost message is only noticed by the caller after this timeout.
+    private long timeoutMillis = 200l;
+    private double dropRate;
+    private final Map<String, Long> slowFactors;
+    private final Set<String> crashed;
+    // Servers in different sides of the partition can't reach each other.
+    private final Map<String, Integer> sides;
+
+    // Set while the servers run their background work, which doesn't hold up the clients.
+    private boolean background;
+
+    private long messages;
+    private long dropped;
+    private long unreachable;
+
+    /**
+     * Constructor.
+     *
+     * @param clock
+     * @param seed
+     */
+    public SimNetwork(SimClock clock, long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+        this.servers = new HashMap<>();
+        this.slowFactors = new HashMap<>();
+        this.crashed = new HashSet<>();
+        this.sides = new HashMap<>();
+    }
+
+    public void addServer(String serverID, ServerInterface server) {
+        servers.put(serverID, server);
+    }
+
+    public void setScheduler(SimScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setLatency(long minLatencyMillis, long maxLatencyMillis) {
+        if (minLatencyMillis < 0 || maxLatencyMillis < minLatencyMillis) {
+            throw new IllegalArgumentException("The latency should be a non-negative range.");
+        }
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * Multiply the latency of every message to or from the server.
+     *
+     * @param serverID
+     * @param factor
+     */
+    public void slowDown(String serverID, long factor) {
+        slowFactors.put(serverID, factor);
+    }
+
+    public void crash(String serverID) {
+        crashed.add(serverID);
+    }
+
+    public void recover(String serverID) {
+        crashed.remove(serverID);
+    }
+
+    public boolean isCrashed(String serverID) {
+        return crashed.contains(serverID);
+    }
+
+    /**
+     * Split the servers into sides which can't reach each other.
+     * A server left out of every side is alone in its own side.
+     * The clients are outside the cluster, and still reach every side.
+     *
+     * @param partition
+     */
+    public void partition(List<Set<String>> partition) {
+        sides.clear();
+        for (int i = 0; i < partition.size(); i++) {
+            for (String serverID : partition.get(i)) {
+                sides.put(serverID, i);
+            }
+        }
+    }
+
+    public void heal() {
+        sides.clear();
+    }
+
+    private boolean canReach(String from, String to) {
+        if (sides.isEmpty() || !servers.containsKey(from)) {
+            return true;
+        }
+        Integer fromSide = sides.get(from);
+        Integer toSide = sides.get(to);
+        return fromSide != null && fromSide.equals(toSide);
+    }
+
+    /**
+     * Run the work in the background: the faults still apply, but the latency is not charged to the clock.
+     *
+     * @param work
+     */
+    public void runInBackground(Runnable work) {
+        background = true;
+        try {
+            work.run();
+        } finally {
+            background = false;
+        }
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getUnreachable() {
+        return unreachable;
+    }
+
+    /**
+     * Get the stub the server "from" uses to call the server "to".
+     *
+     * @param from
+     * @param to
+     * @return
+     */
+    public ServerInterface stub(String from, String to) {
+        return (ServerInterface) Proxy.newProxyInstance(ServerInterface.class.getClassLoader(),
+                new Class<?>[]{ServerInterface.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return invokeObjectMethod(proxy, method, args, from, to);
+                    }
+                    return deliver(from, to, method, args);
+                });
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args, String from, String to) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "SimStub[" + from + " -> " + to + "]";
+        }
+    }
+
+    /**
+     * Deliver a call and its result, charging the latency and injecting the faults.
+     *
+     * @param from
+     * @param to
+     * @param method
+     * @param args
+     * @return
+     * @throws Throwable
+     */
+    private Object deliver(String from, String to, Method method, Object[] args) throws Throwable {
+        // A call to the same server doesn't leave the machine.
+        boolean local = from.equals(to);
+        // A session yields before it draws from the random source, so the draws follow the schedule.
+        if (!local) {
+            pause();
+        }
+        ServerInterface target = servers.get(to);
+        if (!local) {
+            messages++;
+            if (target == null || crashed.contains(to) || crashed.contains(from) || !canReach(from, to)) {
+                unreachable++;
+                charge(timeoutMillis);
+                throw new ConnectException("The server can't be reached: " + to);
+            }
+            if (random.nextDouble() < dropRate / 2) {
+                dropped++;
+                charge(timeoutMillis);
+                throw new RemoteException("The request to the server was lost: " + to);
+            }
+            charge(nextLatency(from, to));
+            // The server may have crashed, or restarted, while the message was on its way.
+            if (crashed.contains(to) || crashed.contains(from)) {
+                unreachable++;
+                throw new ConnectException("The server can't be reached: " + to);
+            }
+            target = servers.get(to);
+        }
+
+        Object result;
+        try {
+            result = method.invoke(target, copyAll(args));
+        } catch (InvocationTargetException e) {
+            if (!local) {
+                pause();
+            }
+            throw e.getCause();
+        }
+
+        if (!local) {
+            pause();
+            if (crashed.contains(to) || random.nextDouble() < dropRate / 2) {
+                dropped++;
+                charge(timeoutMillis);
+                throw new RemoteException("The response from the server was lost: " + to);
+            }
+            charge(nextLatency(from, to));
+        }
+        return copy(result);
+    }
+
+    private void charge(long millis) {
+        if (scheduler != null && scheduler.isSession()) {
+            scheduler.await(millis);
+        } else if (!background) {
+            clock.advance(millis);
+        }
+    }
+
+    /**
+     * Let the other sessions due now run first, without moving the virtual time.
+     */
+    private void pause() {
+        if (scheduler != null && scheduler.isSession()) {
+            scheduler.await(0l);
+        }
+    }
+
+    private long nextLatency(String from, String to) {
+        long latency = minLatencyMillis + (long) (random.nextDouble() * (maxLatencyMillis - minLatencyMillis + 1));
+        long factor = Math.max(slowFactors.getOrDefault(from, 1l), slowFactors.getOrDefault(to, 1l));
+        return latency * factor;
+    }
+
+    private static Object[] copyAll(Object[] args) throws IOException, ClassNotFoundException {
+        if (args == null) {
+            return null;
+        }
+        Object[] copies = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            copies[i] = copy(args[i]);
+        }
+        return copies;
+    }
+
+    /**
+     * Copy a value the way RMI passes it: remote objects by reference, the others by serialization.
+     *
+     * @param value
+     * @return
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private static Object copy(Object value) throws IOException, ClassNotFoundException {
+        if (value == null || value instanceof Remote || value instanceof String
+                || value instanceof Number || value instanceof Boolean || !(value instanceof Serializable)) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(value);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return input.readObject();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package simulation;
+
+import common.ServerInterface;
+
+import java.rmi.AccessException;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory registry of one server of the simulator, standing in for the RMI registry.
+ * The names are bound to server IDs, and a lookup returns a stub which calls the server
+ * through the simulated network, from the server owning the registry.
+ * The names are listed in order, so the servers contact their peers in the same order on every run.
+ */
+public class SimRegistry implements Registry {
+    private final String ownerID;
+    private final SimNetwork network;
+    private final Map<String, String> bindings;
+
+    /**
+     * Constructor.
+     *
+     * @param ownerID
+     * @param network
+     */
+    public SimRegistry(String ownerID, SimNetwork network) {
+        this.ownerID = ownerID;
+        this.network = network;
+        this.bindings = new TreeMap<>();
+    }
+
+    /**
+     * Bind the name to the server, without going through a remote object.
+     *
+     * @param name
+     * @param serverID
+     */
+    public synchronized void bindServerID(String name, String serverID) {
+        bindings.put(name, serverID);
+    }
+
+    @Override
+    public synchronized Remote lookup(String name) throws NotBoundException {
+        String serverID = bindings.get(name);
+        if (serverID == null) {
+            throw new NotBoundException(name);
+        }
+        return network.stub(ownerID, serverID);
+    }
+
+    @Override
+    public synchronized void bind(String name, Remote object) throws AlreadyBoundException, AccessException {
+        if (bindings.containsKey(name)) {
+            throw new AlreadyBoundException(name);
+        }
+        rebind(name, object);
+    }
+
+    @Override
+    public synchronized void unbind(String name) throws NotBoundException {
+        if (bindings.remove(name) == null) {
+            throw new NotBoundException(name);
+        }
+    }
+
+    /**
+     * Bind the name to the server the object stands for, identified by its server ID.
+     *
+     * @param name
+     * @param object
+     * @throws AccessException
+     */
+    @Override
+    public synchronized void rebind(String name, Remote object) throws AccessException {
+        if (!(object instanceof ServerInterface)) {
+            throw new AccessException("Only servers can be bound in the simulator: " + name);
+        }
+        try {
+            bindings.put(name, ((ServerInterface) object).getServerID());
+        } catch (RemoteException e) {
+            throw new AccessException("Could not get the ID of the server: " + name, e);
+        }
+    }
+
+    @Override
+    public synchronized String[] list() {
+        return bindings.keySet().toArray(new String[0]);
+    }
+}
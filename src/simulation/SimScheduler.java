@@ -0,0 +1,229 @@
+package simulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Deterministic scheduler of the concurrent sessions of the simulator.
+ * Every session runs in its own thread, but only one runs at a time: a session yields when it sends
+ * or receives a message, or backs off, and waits for the virtual time the message takes.
+ * The scheduler then moves the clock to the earliest session due and resumes it, picking one
+ * with a seeded random source when several are due at once, so the interleaving is the same on every run.
+ * A session blocked on a lock held by a yielded session is skipped until the lock is released.
+ */
+public class SimScheduler {
+    // How long in real time a session may run without yielding or blocking, before the run is stopped.
+    private static final long STALL_MILLIS = 60000l;
+
+    private final SimClock clock;
+    private final Random random;
+    private final List<Task> tasks;
+    private final ThreadLocal<Task> current;
+    private final ThreadMXBean threads;
+    private Throwable failure;
+
+    private static class Task {
+        private final String name;
+        private final Semaphore resume;
+        private Thread thread;
+        // The virtual time the task waits for, while it has yielded.
+        private long wakeAt;
+        private boolean yielded;
+        private boolean done;
+
+        private Task(String name) {
+            this.name = name;
+            this.resume = new Semaphore(0);
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param clock
+     * @param seed
+     */
+    public SimScheduler(SimClock clock, long seed) {
+        this.clock = clock;
+        this.random = new Random(seed);
+        this.tasks = new ArrayList<>();
+        this.current = new ThreadLocal<>();
+        this.threads = ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Add a session, which starts once the scheduler runs.
+     *
+     * @param name
+     * @param body
+     */
+    public synchronized void spawn(String name, Runnable body) {
+        Task task = new Task(name);
+        task.wakeAt = clock.currentTimeMillis();
+        task.yielded = true;
+        task.thread = new Thread(() -> {
+            current.set(task);
+            task.resume.acquireUninterruptibly();
+            try {
+                body.run();
+            } catch (Throwable e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    task.done = true;
+                    notifyAll();
+                }
+            }
+        }, name);
+        task.thread.setDaemon(true);
+        tasks.add(task);
+        task.thread.start();
+    }
+
+    /**
+     * Check whether the current thread is a session of the scheduler.
+     *
+     * @return
+     */
+    public boolean isSession() {
+        return current.get() != null;
+    }
+
+    /**
+     * Yield the current session until the virtual time has moved by the given milliseconds.
+     *
+     * @param millis
+     */
+    public void await(long millis) {
+        Task task = current.get();
+        if (task == null) {
+            throw new IllegalStateException("Only a session can wait for the virtual time.");
+        }
+        synchronized (this) {
+            task.wakeAt = clock.currentTimeMillis() + millis;
+            task.yielded = true;
+            notifyAll();
+        }
+        task.resume.acquireUninterruptibly();
+    }
+
+    /**
+     * Run the sessions until all of them are done.
+     *
+     * @throws IllegalStateException if the sessions deadlock, one of them stalls or fails
+     */
+    public void run() {
+        while (true) {
+            Task next = null;
+            synchronized (this) {
+                awaitQuiescence();
+                if (failure != null) {
+                    throw new IllegalStateException("A session failed: " + failure, failure);
+                }
+                List<Task> due = new ArrayList<>();
+                boolean done = true;
+                for (Task task : tasks) {
+                    if (task.done) {
+                        continue;
+                    }
+                    done = false;
+                    if (!task.yielded) {
+                        continue;
+                    }
+                    if (due.isEmpty() || task.wakeAt < due.get(0).wakeAt) {
+                        due.clear();
+                    }
+                    if (due.isEmpty() || task.wakeAt == due.get(0).wakeAt) {
+                        due.add(task);
+                    }
+                }
+                if (done) {
+                    return;
+                }
+                if (due.isEmpty()) {
+                    throw new IllegalStateException("Every session is blocked on another one: " + describe());
+                }
+                next = due.get(random.nextInt(due.size()));
+                long now = clock.currentTimeMillis();
+                if (next.wakeAt > now) {
+                    clock.advance(next.wakeAt - now);
+                }
+                next.yielded = false;
+            }
+            next.resume.release();
+        }
+    }
+
+    /**
+     * Wait until every session has yielded, is done, or is blocked on a lock of a session which has yielded.
+     * A session which has just got the lock it waited for runs until it yields.
+     */
+    private void awaitQuiescence() {
+        long stallDeadline = System.currentTimeMillis() + STALL_MILLIS;
+        while (!isQuiescent()) {
+            if (System.currentTimeMillis() > stallDeadline) {
+                throw new IllegalStateException("A session neither yielded nor blocked: " + describe());
+            }
+            try {
+                wait(1l);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The scheduler was interrupted.");
+            }
+        }
+    }
+
+    private boolean isQuiescent() {
+        for (Task task : tasks) {
+            if (!task.done && !task.yielded && !isBlocked(task, tasks.size())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the session waits for a lock held by a session which has yielded, directly or through
+     * other blocked sessions.
+     *
+     * @param task
+     * @param depth
+     * @return
+     */
+    private boolean isBlocked(Task task, int depth) {
+        ThreadInfo info = threads.getThreadInfo(task.thread.getId());
+        if (info == null || depth == 0) {
+            return false;
+        }
+        Thread.State state = info.getThreadState();
+        if (state != Thread.State.BLOCKED && state != Thread.State.WAITING && state != Thread.State.TIMED_WAITING) {
+            return false;
+        }
+        long ownerID = info.getLockOwnerId();
+        for (Task owner : tasks) {
+            if (owner != task && !owner.done && owner.thread.getId() == ownerID) {
+                return owner.yielded || isBlocked(owner, depth - 1);
+            }
+        }
+        return false;
+    }
+
+    private String describe() {
+        StringBuilder res = new StringBuilder();
+        for (Task task : tasks) {
+            if (!task.done) {
+                res.append(task.name).append(task.yielded ? " (yielded) " : " (" + task.thread.getState() + ") ");
+            }
+        }
+        return res.toString();
+    }
+}